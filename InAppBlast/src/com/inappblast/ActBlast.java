@@ -1,7 +1,5 @@
 package com.inappblast;
 
-import java.util.Date;
-
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.Application;
@@ -11,8 +9,10 @@ import android.graphics.drawable.ShapeDrawable;
 import android.graphics.drawable.StateListDrawable;
 import android.graphics.drawable.shapes.RectShape;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.widget.Button;
 import android.widget.ImageButton;
@@ -67,10 +67,13 @@ public class ActBlast extends Activity implements OnClickListener{
 		overlay = (LinearLayout) findViewById(R.id.blast_overlay);
 		
 		BlastConfig config = AppBlast.getSharedInstance().getConfig();
+		BlastMedia media = AppBlast.getSharedInstance().getMedia();
 		
-		if(config != null){
+		if(config != null && media != null){
+			
+			markFirstDraw(media.getTimeline());
 			
-			BitmapDrawable[] bitmaps = config.getBitmaps();
+			BitmapDrawable[] bitmaps = media.getBitmaps(getResources());
 			
 			String title = config.getTitle();
 			String content = config.getDescription();
@@ -110,6 +113,25 @@ public class ActBlast extends Activity implements OnClickListener{
 	
 	
 	
+	/**
+	 * Records {@link BlastTimeline#PHASE_FIRST_DRAW} phase 
+	 * when the notification is about to be drawn for the first time.
+	 * @param timeline - timeline of the notification load
+	 */
+	private void markFirstDraw(final BlastTimeline timeline){
+		
+		getWindow().getDecorView().getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+			@Override
+			public boolean onPreDraw() {
+				timeline.mark(BlastTimeline.PHASE_FIRST_DRAW);
+				getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+				return true;
+			}
+		});
+	}
+	
+	
+	
 	/**
 	 * This method different methods of setting
 	 * background, depends on environment API level
@@ -150,8 +172,8 @@ public class ActBlast extends Activity implements OnClickListener{
 	@Override
 	protected void onStart() {
 		super.onResume();
-		this.delta1 = AppBlast.getSharedInstance().getConfig().getDelta();
-		this.delta2 = new Date().getTime();
+		this.delta1 = AppBlast.getSharedInstance().getMedia().getDelta();
+		this.delta2 = SystemClock.elapsedRealtime();
 	}
 	
 	
@@ -194,7 +216,7 @@ public class ActBlast extends Activity implements OnClickListener{
 	 * @param action - code of action 1-positive 0-negative
 	 */
 	private void reportStats(int action){
-		this.delta2 = new Date().getTime() - this.delta2;
+		this.delta2 = SystemClock.elapsedRealtime() - this.delta2;
 		AppBlast.getSharedInstance().postUsageInfo(delta1, delta2, action);
 	}
 	
@@ -1,39 +1,46 @@
 package com.inappblast;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.DefaultRedirectHandler;
+import org.apache.http.conn.ClientConnectionManager;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
+import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.ActivityManager;
 import android.app.ActivityManager.RunningAppProcessInfo;
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.os.AsyncTask;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.inappblast.BlastConfig.OnMediaLoadedListener;
+import com.inappblast.MarkBatcher.Mark;
+import com.inappblast.RequestJournal.Record;
 
 
 /**
@@ -79,9 +86,10 @@ public class AppBlast implements OnMediaLoadedListener{
 	
 	
 	/**
-	 * Shared preferences for storing the current userId
+	 * Shared preferences for storing the current userId,
+	 * loaded in background during initialization
 	 */
-	private SharedPreferences pref;
+	private volatile SharedPreferences pref;
 	
 	
 	
@@ -164,12 +172,25 @@ public class AppBlast implements OnMediaLoadedListener{
 	 * Lock for blocking operations that should not be 
 	 * started simultaneously.  
 	 */
-	// XXX: May not needed
-	@SuppressWarnings("unused")
 	private final Object lock = new Object();
 	
 	
 	
+	/**
+	 * Calls made before initialization is finished, null when AppBlast is ready.
+	 * Guarded by {@link AppBlast#lock}.
+	 */
+	private List<Runnable> pendingCalls = new ArrayList<Runnable>();
+	
+	
+	
+	/**
+	 * Main thread handler
+	 */
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	
+	
+	
 	/**
 	 * The reference to application object
 	 * We need that object to gain access to SharedPreferences
@@ -185,68 +206,271 @@ public class AppBlast implements OnMediaLoadedListener{
 	
 	
 	
+	/**
+	 * Receives metrics snapshots, may be null
+	 */
+	private OnBlastMetricsListener metricsListener;
+	
+	
+	
+	/**
+	 * True if phase timeline is attached to the statistic marks
+	 */
+	private boolean uploadTimeline;
+	
+	
+	
 	/**
 	 * Call this method to instantiate and initialize the AppBlas.
 	 * You should pass valid projectKey, otherwise AppBlast
 	 * will not work correctly. The call of this method valid only once.
 	 * All subsequent call of this method will not affect the AppBlast state. 
+	 * Only listeners are registered on the calling thread, preferences and 
+	 * network transport are loaded in background, after that the notification
+	 * is requested. Calls made before that are queued and run in order 
+	 * when AppBlast is ready.
 	 * @param projectKey - String with valid project key
 	 * @param application - reference to Application instance. Application must implement {@link OnBlastActionListener}
 	 * @throws IllegalArgumentException
 	 */
-	public static void initSharedInstance(String projectKey, Application application){// throws IllegalArgumentException{
+	public static synchronized void initSharedInstance(String projectKey, Application application){// throws IllegalArgumentException{
 		
 		if(TextUtils.isEmpty(projectKey) || application == null)
 			throw new IllegalArgumentException(
 					"The AppBlast.initSharedInstance() can't be called with empty or null parameters."
 				);
 		
+		/* Journal, foreground tracker and init task exist once per process */
+		if(AppBlast.application != null){
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".initSharedInstance()", "AppBlast is already initialized, call ignored.");
+			return;
+		}
+		
+		long started = SystemClock.elapsedRealtime();
+		
 		AppBlast.application = application;
 		
 		AppBlast.projectKey = projectKey;
 		
 		final AppBlast blast = Keeper.instance;
 		
-		blast.pref = application.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-		
 		if(application instanceof OnBlastActionListener)
 			blast.listener = (OnBlastActionListener) application;
 		
-		String userId = blast.getUserId();
+		/* Activity callbacks report when process goes to background */
+		if(android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+			blast.trackForeground(application);
+		
+		blast.journal = new RequestJournal(
+				new File(application.getFilesDir(), RequestJournal.FILE_NAME), blast.journalSender);
+		
+		blast.new InitTask(started).execute(SdkExecutor.PRIORITY_HIGH);
+		
+		long spent = SystemClock.elapsedRealtime() - started;
+		
+		DLog.t(TraceBuffer.INIT, spent, 0);
 		
-		/*  */
 		if(DLog.i())
 			DLog.i(LOG_TAG + ".initSharedInstance()",
-					"[projectKey=" + projectKey +
-					"] [userId=" + userId + "]");
+					"[projectKey=" + projectKey + "] [time on calling thread=" + spent + "ms]");
+		
+	}
+	
+	
+	
+	/**
+	 * Loads preferences, network transport and device descriptor in background,
+	 * then finishes initialization on the main thread.
+	 * @author Maksym Fedyay
+	 */
+	private class InitTask extends SdkTask<Void>{
+		
+		/* Time when initSharedInstance() was called */
+		private final long started;
 		
+		/* Time spent in background */
+		private long spent;
 		
-		blast.timer = new Timer();
+		InitTask(long started){
+			this.started = started;
+		}
+		
+		@Override
+		protected Void doInBackground() {
+			warmUp();
+			return null;
+		}
 		
-		blast.loadConfig();
+		@Override
+		protected void onPostExecute(Void result) {
+			onReady(this.started, this.spent);
+		}
 		
+		@Override
+		protected void onDropped() {
+			
+			/* Not expected at start, warm up on own thread so nothing is loaded on the main thread */
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					warmUp();
+					handler.post(new Runnable() {
+						@Override
+						public void run() {
+							onReady(started, spent);
+						}
+					});
+				}
+			}, "AppBlast-init");
+			
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		/* Loads everything the first requests need */
+		private void warmUp(){
+			
+			long start = SystemClock.elapsedRealtime();
+			
+			Context context = AppBlast.application.getApplicationContext();
+			
+			/* Reading the value waits until the file is loaded */
+			preferences().getString(SP_USER_ID, null);
+			
+			HttpTransport.getInstance();
+			
+			/* Device descriptor makes IPC call, create it before the first request */
+			DeviceDescriptor.getInstance(context);
+			
+			this.spent = SystemClock.elapsedRealtime() - start;
+		}
 	}
 	
 	
 	
 	/**
-	 * Gets configuration data for notification
+	 * Finishes initialization on the main thread: starts sending requests 
+	 * that were not sent during previous sessions, requests notification
+	 * and runs calls queued before.
+	 * @param started - time when initSharedInstance() was called
+	 * @param spent - time spent in background
+	 */
+	private void onReady(long started, long spent){
+		
+		List<Runnable> calls;
+		
+		synchronized (this.lock) {
+			calls = this.pendingCalls;
+			this.pendingCalls = null;
+		}
+		
+		/* Already initialized */
+		if(calls == null) return;
+		
+		AppBlast.application.registerReceiver(this.connectivityReceiver,
+				new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+		
+		/* Send requests that were not sent during previous sessions */
+		this.journal.replay();
+		
+		loadConfig();
+		
+		for (Runnable call : calls) {
+			call.run();
+		}
+		
+		long total = SystemClock.elapsedRealtime() - started;
+		
+		DLog.t(TraceBuffer.READY, spent, total);
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".onReady()", "[userId=" + getUserId() + "] [time in background=" 
+					+ spent + "ms] [time to ready=" + total + "ms] [queued calls=" + calls.size() + "]");
+	}
+	
+	
+	
+	/**
+	 * Queues call if initialization is not finished yet.
+	 * @param call - call to run when AppBlast is ready
+	 * @return true if call is queued, false if it should be run now
+	 */
+	private boolean deferred(Runnable call){
+		synchronized (this.lock) {
+			if(this.pendingCalls == null) return false;
+			this.pendingCalls.add(call);
+			return true;
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns shared preferences, loads them on the calling thread
+	 * if they are asked before background initialization loaded them.
+	 * @return {@link SharedPreferences}
+	 */
+	private SharedPreferences preferences(){
+		
+		SharedPreferences pref = this.pref;
+		
+		if(pref == null){
+			pref = AppBlast.application.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+			this.pref = pref;
+		}
+		
+		return pref;
+	}
+	
+	
+	
+	/**
+	 * URI of the configuration which is being loaded together
+	 * with its media, or null. Should be accessed on the main thread only.
+	 */
+	private String configInFlight;
+	
+	
+	
+	/**
+	 * Generation of the latest configuration load. Results of the
+	 * previous generations are dropped.
+	 */
+	private int configGeneration;
+	
+	
+	
+	/**
+	 * Gets configuration data for notification.
+	 * If the same configuration is being loaded already, the call joins
+	 * that load. Load of another configuration supersedes the previous one.
 	 */
 	private void loadConfig(){
 		
+		/* Notification is requested as soon as initialization is finished */
+		synchronized (this.lock) {
+			if(this.pendingCalls != null) return;
+		}
+		
 		String userId = getUserId();
 		
 		if(TextUtils.isEmpty(userId)) return;
 		
 		String uriGet = String.format(URI_BASE + URI_GET, AppBlast.projectKey, userId);
 		
+		if(uriGet.equals(this.configInFlight)){
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".loadConfig()", "Joined load in flight | generation=" + this.configGeneration);
+			return;
+		}
+		
+		this.configInFlight = uriGet;
+		
 		if(DLog.i())
 			DLog.i(LOG_TAG + ".loadConfig()", "<< | URI=" + uriGet);
 		
-		HttpGet get = new HttpGet(uriGet); 
-		NetTaskRequest request = new NetTaskRequest(NetTaskRequest.GET_CONFIG, get);
-		NetTask task = new NetTask();
-		task.execute(request);
+		new ConfigTask(uriGet, ++this.configGeneration).execute(SdkExecutor.PRIORITY_HIGH);
 		
 		if(DLog.i())
 			DLog.i(LOG_TAG + ".loadConfig()", ">>");
@@ -290,6 +514,151 @@ public class AppBlast implements OnMediaLoadedListener{
 	
 	
 	
+	/**
+	 * Returns the last library events as text, one event per line, the oldest first.
+	 * Events are recorded at any logging level, so the dump can be attached 
+	 * to a bug report when notification was not shown. Each line is 
+	 * time relative to the dump in milliseconds, event name and two event arguments.
+	 * @return String with the recorded events
+	 */
+	public String dumpTrace(){
+		return TraceBuffer.dump();
+	}
+	
+	
+	
+	/**
+	 * Returns snapshot of the library metrics: request, media and queue 
+	 * latency histograms, byte counts, cache stats and failures by cause.
+	 * @return {@link BlastMetrics}
+	 */
+	public BlastMetrics getMetrics(){
+		return SdkMetrics.snapshot();
+	}
+	
+	
+	
+	/**
+	 * Sets listener that receives metrics snapshot every time notification 
+	 * loading finishes and when application goes to background.
+	 * Pass null to remove listener.
+	 * @param listener - {@link OnBlastMetricsListener}
+	 */
+	public void setOnBlastMetricsListener(OnBlastMetricsListener listener){
+		this.metricsListener = listener;
+	}
+	
+	
+	
+	/**
+	 * Returns phase timeline of the last loaded notification,
+	 * from configuration request to the first draw of notification activity.
+	 * @return {@link BlastTimeline} or null if no notification is loaded yet
+	 */
+	public BlastTimeline getTimeline(){
+		BlastMedia media = this.media;
+		return media == null ? null : media.getTimeline();
+	}
+	
+	
+	
+	/**
+	 * Turns on upload of the notification phase timeline together 
+	 * with the notification statistic mark, see {@link BlastTimeline}.
+	 * Default is off.
+	 * @param upload - true to attach timeline to the marks
+	 */
+	public void setTimelineUpload(boolean upload){
+		this.uploadTimeline = upload;
+	}
+	
+	
+	
+	/**
+	 * Delivers metrics snapshot to the listener. Called on the main thread.
+	 */
+	private void reportMetrics(){
+		
+		OnBlastMetricsListener listener = this.metricsListener;
+		
+		if(listener != null)
+			listener.onBlastMetrics(SdkMetrics.snapshot());
+	}
+	
+	
+	
+	/**
+	 * Sets time in milliseconds the loaded notification configuration
+	 * is used without asking the server again. Configuration older than
+	 * that is requested conditionally and is not downloaded again if 
+	 * it was not changed on the server. Notification of the stored 
+	 * configuration is shown only once.
+	 * By default configuration is checked on every load.
+	 * @param ttl - time in milliseconds
+	 */
+	public void setConfigTTL(long ttl){
+		ConfigCache.setTTL(ttl);
+	}
+	
+	
+	
+	/**
+	 * Sets {@link Executor} on which InAppBlast will do its network 
+	 * and disk work. By default InAppBlast uses its own background threads
+	 * and does not use {@link android.os.AsyncTask} executor of the application.
+	 * No more than 3 tasks are passed to the executor at once.
+	 * Pass null to go back to the own threads.
+	 * @param executor - {@link Executor} of the application
+	 */
+	public void setExecutor(Executor executor){
+		SdkExecutor.getInstance().setExecutor(executor);
+	}
+	
+	
+	
+	/**
+	 * Sets {@link ClientConnectionManager} thru which InAppBlast sends 
+	 * all its HTTP requests, e.g. to share the connection pool of the application.
+	 * By default InAppBlast uses its own pool of keep-alive connections.
+	 * Manager of the application is not shut down by InAppBlast.
+	 * Pass null to go back to the own pool.
+	 * @param manager - {@link ClientConnectionManager} of the application
+	 */
+	public void setConnectionManager(ClientConnectionManager manager){
+		HttpTransport.setInstance(manager == null ? null : new HttpTransport(manager));
+	}
+	
+	
+	
+	/**
+	 * Turns on gzip compression of large request bodies.
+	 * Turn it on only if the server accepts requests 
+	 * with <code>Content-Encoding: gzip</code>. 
+	 * Responses are always requested compressed. 
+	 * Default is off.
+	 * @param compress - true to compress request bodies
+	 */
+	public void setRequestCompression(boolean compress){
+		HttpTransport.setCompressRequests(compress);
+	}
+	
+	
+	
+	/**
+	 * Turns on compact binary (MessagePack) payloads.
+	 * Configuration is requested with binary format preferred,
+	 * server that does not support it keeps answering with JSON.
+	 * Statistic marks are sent in binary format, so turn it on only if the server 
+	 * accepts requests with <code>Content-Type: application/x-msgpack</code>.
+	 * Default is off.
+	 * @param binary - true to use binary payloads
+	 */
+	public void setBinaryFormat(boolean binary){
+		MessagePack.setEnabled(binary);
+	}
+	
+	
+	
 	/**
 	 * User id that is about to be saved in SharedPreferences
 	 * after being successfully saved on the server
@@ -311,29 +680,27 @@ public class AppBlast implements OnMediaLoadedListener{
 	 *   
 	 * @param userId - String with the user id
 	 */
-	public void setUserId(String userId){
+	public void setUserId(final String userId){
 		
 		if(TextUtils.isEmpty(userId)) return;
 		
+		if(deferred(new Runnable() {
+			@Override
+			public void run() {
+				setUserId(userId);
+			}
+		})) return;
+		
 		this.userId = userId;
 		
-		HttpPost post = new HttpPost(URI_BASE + URI_SET);
-		post.setHeader("key", AppBlast.projectKey);
-		post.setHeader("Content-Type", "application/json");
-		StringEntity sEntity = new JSONRequest(userId)
+		String body = new JSONRequest(userId)
 			.setDeviceProperties()
-			.getEntityString();
+			.getBody();
 		
-		if(sEntity == null){
-			if(DLog.e())
-				DLog.e(LOG_TAG, "setUserId() interrapted because of error in json request creation");
-			return;
-		}
+		/* Properties of the current user are sent first */
+		this.properties.flush();
 		
-		post.setEntity(sEntity);
-		NetTaskRequest request = new NetTaskRequest(NetTaskRequest.SET_USER_ID, post);
-		NetTask task = new NetTask();
-		task.execute(request);
+		this.journal.append(NetTaskRequest.SET_USER_ID, URI_BASE + URI_SET, userId, body);
 	}
 	
 	
@@ -345,8 +712,8 @@ public class AppBlast implements OnMediaLoadedListener{
 	 * success.
 	 * @param userId - String with the user id
 	 */
-	private void saveUserId(){
-		pref.edit().putString(SP_USER_ID, this.userId).commit();
+	private void saveUserId(String userId){
+		preferences().edit().putString(SP_USER_ID, userId).commit();
 		AppBlast.this.loadConfig();
 		this.userId = null;
 		
@@ -370,325 +737,793 @@ public class AppBlast implements OnMediaLoadedListener{
 		
 		if(userId.equals(currentId)) return false;
 			
-		setUserId(userId);
+		setUserId(userId);
+		
+		return true;
+	}
+	
+	
+	
+	/**
+	 * Returns userId that was previously saved 
+	 * or <code>null</code> if no userId found.
+	 * If called before initialization is finished, preferences
+	 * are loaded on the calling thread.
+	 * @return String with userId
+	 * @see AppBlast#setUserId(String)
+	 * @see AppBlast#setUserIdIfNotSet(String)
+	 */
+	public String getUserId(){
+		return preferences().getString(SP_USER_ID, null);
+	}
+	
+	
+	
+	/**
+	 * Removes current userId. If userId previously not
+	 * then operation ignored. 
+	 */
+	public void removeUserId(){
+		
+		if(deferred(new Runnable() {
+			@Override
+			public void run() {
+				removeUserId();
+			}
+		})) return;
+		
+		/* Properties of the current user are sent first */
+		this.properties.flush();
+		
+		this.journal.append(NetTaskRequest.UNSET_USER_ID, URI_BASE + URI_UNSET, null, null);
+	}
+	
+	
+	
+	/**
+	 * Sets user property. 
+	 * Properties set during short period of time are merged and
+	 * sent with one request, see {@link AppBlast#setPropertyWindow(long)}.
+	 * Call {@link AppBlast#flush()} to send them at once.
+	 * Properties named <code>_id</code> or <code>user_id</code> can't replace 
+	 * the user id, they are skipped and not sent. Properties with null value 
+	 * are not sent either.
+	 * @param property
+	 */
+	public void setUserProperty(final Map<String, String> property){
+	
+		if(property == null || property.size() == 0) return;
+		
+		if(deferred(new Runnable() {
+			@Override
+			public void run() {
+				setUserProperty(property);
+			}
+		})) return;
+		
+		String userId = getUserId(); 
+		
+		if(TextUtils.isEmpty(userId)) return;
+		
+		this.properties.add(userId, property);
+		
+	}
+	
+	
+	
+	/**
+	 * Pending user properties, merged before upload
+	 */
+	private final PropertyBatcher properties = new PropertyBatcher(new PropertyBatcher.Uploader() {
+		@Override
+		public void upload(String userId, Map<String, String> properties) {
+			postProperties(userId, properties);
+		}
+	});
+	
+	
+	
+	/**
+	 * Uploads merged user properties with one request.
+	 * Only properties changed since the last acknowledged upload are sent,
+	 * see {@link PropertyFingerprint}. Fingerprint is read on the journal thread.
+	 * @param userId - user id the properties were set for
+	 * @param properties - properties to upload
+	 */
+	private void postProperties(final String userId, final Map<String, String> properties){
+		
+		this.journal.append(NetTaskRequest.SET_USER_PROPERTY, URI_BASE + URI_SET, new RequestJournal.Builder() {
+			@Override
+			boolean build() {
+				
+				PropertyFingerprint fingerprint = PropertyFingerprint.getInstance(getApplicationContext());
+				
+				Map<String, String> changed = fingerprint.changed(userId, properties);
+				
+				if(changed.isEmpty()) return false;
+				
+				this.tag = PropertyFingerprint.encode(userId, changed);
+				
+				this.body = new JSONRequest(userId)
+					.setUserProperties(changed)
+					.getBody();
+				
+				return true;
+			}
+		});
+	}
+	
+	
+	
+	/**
+	 * Sets time in milliseconds during which user properties
+	 * are merged before they are sent with one request.
+	 * Default time is {@link PropertyBatcher#DEFAULT_WINDOW 2 seconds},
+	 * pass 0 to send every {@link AppBlast#setUserProperty(Map)} call at once.
+	 * @param window - time in milliseconds
+	 */
+	public void setPropertyWindow(long window){
+		this.properties.setWindow(window);
+	}
+	
+	
+	
+	/**
+	 * Sends pending user properties and notification statistics
+	 * without waiting for the merge window.
+	 */
+	public void flush(){
+		
+		if(deferred(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		})) return;
+		
+		this.properties.flush();
+		
+		/* Marks are accessed on the main thread only */
+		this.handler.post(new Runnable() {
+			@Override
+			public void run() {
+				AppBlast.this.marks.flush();
+			}
+		});
+	}
+	
+	
+	
+	/**
+	 * 
+	 * @param delta2
+	 */
+	void postUsageInfo(long delta1, long delta2, int action){
+		
+		if(this.config == null) return;
+		
+		if(delta1 == 0 || delta2 == 0) return;
+		
+		String userId = preferences().getString(SP_USER_ID, null);
+		
+		if(TextUtils.isEmpty(userId)) return;
+		
+		String notificationId = this.config.getId();
+		
+		String timeline = this.uploadTimeline && this.media != null ? this.media.getTimeline().toJSON() : null;
+		
+		this.marks.add(new Mark(notificationId, delta1, delta2, action, timeline));
+	}
+	
+	
+	
+	/**
+	 * Queue of notification statistic marks,
+	 * marks are uploaded in batches.
+	 */
+	private final MarkBatcher marks = new MarkBatcher(new MarkBatcher.Uploader() {
+		@Override
+		public boolean upload(List<Mark> marks) {
+			return postMarks(marks);
+		}
+	});
+	
+	
+	
+	/**
+	 * Uploads batch of notification statistic marks with one request.
+	 * Request is kept in the {@link RequestJournal} until it succeeds. 
+	 * @param marks - marks to upload
+	 * @return false if marks can't be uploaded now
+	 */
+	private boolean postMarks(List<Mark> marks){
+		
+		String userId = preferences().getString(SP_USER_ID, null);
+		
+		if(TextUtils.isEmpty(userId)) return false;
+		
+		String body = new JSONRequest(userId)
+			.setMarks(marks)
+			.getBody();
+		
+		this.journal.append(NetTaskRequest.POST_MARK, URI_BASE + URI_MARK, null, body);
+		
+		return true;
+	}
+	
+	
+	
+	/**
+	 * Journal of the requests that change data on the server:
+	 * user id, user properties and notification marks.
+	 */
+	private RequestJournal journal;
+	
+	
+	
+	/**
+	 * Sends journaled requests and handles their responses
+	 */
+	private final RequestJournal.Sender journalSender = new RequestJournal.Sender() {
+		
+		@Override
+		public JSONObject send(Record record) {
+			
+			HttpPost post = new HttpPost(record.uri);
+			
+			post.setHeader("key", AppBlast.projectKey);
+			post.setHeader("Content-Type", "application/json");
+			
+			if(MessagePack.isEnabled())
+				post.setHeader("Accept", MessagePack.ACCEPT);
+			
+			if(record.body != null){
+				try {
+					if(MessagePack.isEnabled() && record.action == NetTaskRequest.POST_MARK){
+						/* Journal keeps JSON, binary body is encoded on send */
+						byte[] content = MessagePack.write(new JSONObject(record.body));
+						post.setHeader("Content-Type", MessagePack.CONTENT_TYPE);
+						post.setEntity(HttpTransport.getInstance().createEntity(content));
+					} else {
+						post.setEntity(HttpTransport.getInstance().createEntity(record.body));
+					}
+				} catch (UnsupportedEncodingException e) {
+					if(DLog.e())
+						DLog.e(LOG_TAG + ".send()@Sender", e.getMessage());
+					return null;
+				} catch (JSONException e) {
+					if(DLog.e())
+						DLog.e(LOG_TAG + ".send()@Sender", e.getMessage());
+					/* Body will never be encoded, retrying would block the journal */
+					return rejected(record, TraceBuffer.CAUSE_PARSE, "Invalid request body");
+				}
+			}
+			
+			long started = SystemClock.elapsedRealtime();
+			
+			JSONObject result = AppBlast.execute(post);
+			
+			SdkMetrics.time(SdkMetrics.requestTimer(record.action), SystemClock.elapsedRealtime() - started);
+			
+			if(result != null && result.has(REJECTED))
+				return rejected(record, result.optInt(REJECTED), result.optString(BlastConfig.ERROR));
+			
+			return result;
+		}
+		
+		@Override
+		public void onAcknowledged(Record record, JSONObject result) {
+			
+			if(record.action == NetTaskRequest.SET_USER_PROPERTY)
+				PropertyFingerprint.getInstance(getApplicationContext())
+					.acknowledged(record.tag, result.isNull(BlastConfig.ERROR));
+		}
+		
+		@Override
+		public void onDropped(Record record) {
+			
+			/* The same values are sent again by the next call */
+			if(record.action == NetTaskRequest.SET_USER_PROPERTY)
+				PropertyFingerprint.getInstance(getApplicationContext())
+					.acknowledged(record.tag, false);
+		}
+		
+		@Override
+		public void onSent(Record record, JSONObject result) {
+			AppBlast.this.onResponse(record.action, result, record.tag);
+		}
+	};
+	
+	
+	
+	/**
+	 * Replays journaled requests when network connection is back
+	 */
+	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			
+			if(intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) return;
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".onReceive()@connectivityReceiver", "Network connection is available");
+			
+			AppBlast.this.journal.replay();
+		}
+	};
+	
+	
+	
+	/**
+	 * Actions of the library requests
+	 * @author Maksym Fedyay
+	 */
+	static class NetTaskRequest {
+
+		public static final int GET_CONFIG = 10;
+		public static final int POST_MARK = 11;
+		public static final int SET_USER_ID = 12;
+		public static final int SET_USER_PROPERTY = 13;
+		public static final int UNSET_USER_ID = 14;
+
+	}
+	
+	
+	
+	/**
+	 * Loads notification configuration. Stored configuration is used
+	 * without request while it is fresh, otherwise it is revalidated
+	 * with conditional request. Stored configuration which notification
+	 * was already shown is not shown again.
+	 * @author Maksym Fedyay
+	 */
+	private class ConfigTask extends SdkTask<BlastConfig>{
+
+		
+		private final String uri;
+		
+		private final int generation;
+		
+		private final BlastTimeline timeline = new BlastTimeline();
+		
+		/* True if stored configuration was skipped because it was shown */
+		private boolean alreadyShown;
+		
+		/* Log creation */
+		public ConfigTask(String uri, int generation){
+			
+			this.uri = uri;
+			this.generation = generation;
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".ConfigTask", "Initialized | " + this.toString());
+		}
+		
+		
+		/*
+		 * 
+		 */
+		@Override
+		protected BlastConfig doInBackground() {
+			
+			String uri = this.uri;
+			
+			ConfigCache cache = ConfigCache.getInstance(getApplicationContext());
+			ConfigCache.Entry cached = cache.get(uri);
+			
+			if(cached != null && cached.isFresh()){
+				if(DLog.i())
+					DLog.i(LOG_TAG + ".ConfigTask.doInBackground()", "Stored configuration is fresh");
+				DLog.t(TraceBuffer.CONFIG_CACHED, HttpStatus.SC_OK, 0);
+				SdkMetrics.count(SdkMetrics.CONFIG_CACHE_HIT);
+				return notShown(cached);
+			}
+			
+			DLog.t(TraceBuffer.CONFIG_REQUEST, this.generation, 0);
+			
+			HttpGet get = new HttpGet(uri);
+			ConfigCache.addValidators(get, cached);
+			
+			if(MessagePack.isEnabled())
+				get.setHeader("Accept", MessagePack.ACCEPT);
+			
+			HttpResponse response = null;
+			
+			long started = SystemClock.elapsedRealtime();
+			
+			try {
+				
+				response = HttpTransport.getInstance().execute(get, this.timeline);
+				StatusLine statusLine = response.getStatusLine();
+				int statusCode = statusLine.getStatusCode();
+				
+				if(DLog.i())
+					DLog.i(LOG_TAG + ".ConfigTask.doInBackground()", statusLine.toString());
+				
+				if(statusCode == HttpStatus.SC_NOT_MODIFIED && cached != null){
+					DLog.t(TraceBuffer.CONFIG_CACHED, statusCode, 0);
+					SdkMetrics.count(SdkMetrics.CONFIG_CACHE_REVALIDATED);
+					cache.revalidated(cached);
+					return notShown(cached);
+				}
+				
+				if(statusCode != HttpStatus.SC_OK){
+					DLog.t(TraceBuffer.CONFIG_FAILED, statusCode, 0);
+					SdkMetrics.count(SdkMetrics.FAILURE_HTTP);
+					return null;
+				}
+				
+				HttpEntity entity = response.getEntity();
+				
+				DLog.t(TraceBuffer.CONFIG_RESPONSE, statusCode, entity == null ? 0 : entity.getContentLength());
+				
+				JSONObject result = readBody(entity);
+				
+				this.timeline.mark(BlastTimeline.PHASE_BODY_READ);
+				
+				if(result == null){
+					DLog.t(TraceBuffer.CONFIG_FAILED, TraceBuffer.CAUSE_PARSE, 0);
+					SdkMetrics.count(SdkMetrics.FAILURE_PARSE);
+					return null;
+				}
+				
+				if(!result.isNull(BlastConfig.ERROR)){
+					DLog.t(TraceBuffer.CONFIG_FAILED, TraceBuffer.CAUSE_ERROR, 0);
+					SdkMetrics.count(SdkMetrics.FAILURE_SERVER);
+					if(DLog.e())
+						DLog.e(LOG_TAG + ".ConfigTask.doInBackground()", 
+								"Response come with error [" + result.optString(BlastConfig.ERROR) + "]");
+					return null;
+				}
+				
+				BlastConfig config = new BlastConfig(result);
+				
+				this.timeline.mark(BlastTimeline.PHASE_PARSED);
+				
+				cache.put(uri, response, result, config);
+				
+				return config;
+				
+			} catch (ClientProtocolException e) {
+				DLog.t(TraceBuffer.CONFIG_FAILED, TraceBuffer.CAUSE_IO, 0);
+				SdkMetrics.count(SdkMetrics.FAILURE_IO);
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".ConfigTask.doInBackground()", e.getMessage());
+			} catch (IOException e) {
+				DLog.t(TraceBuffer.CONFIG_FAILED, TraceBuffer.CAUSE_IO, 0);
+				SdkMetrics.count(SdkMetrics.FAILURE_IO);
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".ConfigTask.doInBackground()", e.getMessage());
+			} catch (JSONException e) {
+				DLog.t(TraceBuffer.CONFIG_FAILED, TraceBuffer.CAUSE_PARSE, 0);
+				SdkMetrics.count(SdkMetrics.FAILURE_PARSE);
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".ConfigTask.doInBackground()", e.getMessage());
+			} catch (IllegalArgumentException e) {
+				DLog.t(TraceBuffer.CONFIG_FAILED, TraceBuffer.CAUSE_PARSE, 0);
+				SdkMetrics.count(SdkMetrics.FAILURE_PARSE);
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".ConfigTask.doInBackground()", e.getMessage());
+			} finally {
+				/* Return connection to the pool */
+				HttpTransport.release(get, response);
+				SdkMetrics.time(SdkMetrics.REQUEST_GET_CONFIG, SystemClock.elapsedRealtime() - started);
+			}
+			
+			return null;
+		}
+		
+		
+		/*
+		 * Returns stored configuration, or null if its notification was shown
+		 */
+		private BlastConfig notShown(ConfigCache.Entry cached){
+			
+			if(!cached.shown) return cached.config;
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".ConfigTask.doInBackground()", "Notification of stored configuration is already shown");
+			
+			this.alreadyShown = true;
+			
+			return null;
+		}
+		
+		
+		/*
+		 * 
+		 */
+		@Override
+		protected void onPostExecute(BlastConfig config) {
+			
+			if(!isCurrentLoad(this.generation)) return;
+			
+			if(config == null && this.alreadyShown){
+				AppBlast.this.configInFlight = null;
+				return;
+			}
+			
+			if(config == null){
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".ConfigTask.onPostExecute()", 
+							"Notification configuration is not loaded."
+									+ "This may be caused by lack of network connection.");
+				AppBlast.this.configInFlight = null;
+				return;
+			}
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".ConfigTask.onPostExecute()", "Notification configuration loaded successfully.");
+			
+			final int generation = this.generation;
+			
+			config.loadMedia(this.timeline, new OnMediaLoadedListener() {
+				@Override
+				public void onMediaLoaded(int event, Object... args) {
+					
+					if(!isCurrentLoad(generation)) return;
+					
+					AppBlast.this.configInFlight = null;
+					AppBlast.this.onMediaLoaded(event, args);
+				}
+			});
+		}
+		
+		
+		/*
+		 * 
+		 */
+		@Override
+		protected void onDropped() {
+			
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".ConfigTask.onDropped()", "Notification configuration is not loaded, SDK queue is full.");
+			
+			if(isCurrentLoad(this.generation))
+				AppBlast.this.configInFlight = null;
+		}
 		
-		return true;
 	}
 	
 	
 	
 	/**
-	 * Returns userId that was previously saved 
-	 * or <code>null</code> if no userId found.
-	 * @return String with userId
-	 * @see AppBlast#setUserId(String)
-	 * @see AppBlast#setUserIdIfNotSet(String)
+	 * Returns false and logs if result of the configuration load
+	 * is stale, i.e. another load was started after it.
+	 * @param generation - generation of the load
+	 * @return true if the load is the latest one
 	 */
-	public String getUserId(){
-		return pref.getString(SP_USER_ID, null);
+	private boolean isCurrentLoad(int generation){
+		
+		if(generation == this.configGeneration) return true;
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".isCurrentLoad()", "Stale result dropped | generation=" + generation
+					+ ", current=" + this.configGeneration);
+		
+		return false;
 	}
 	
 	
 	
 	/**
-	 * Removes current userId. If userId previously not
-	 * then operation ignored. 
+	 * Key of the HTTP status in the envelope of the rejected request
 	 */
-	public void removeUserId(){
-		
-		HttpPost post = new HttpPost(URI_BASE + URI_UNSET);
-		
-		post.setHeader("Content-Type", "application/json");
-		post.setHeader("key", AppBlast.projectKey);
-		
-		NetTaskRequest request = new NetTaskRequest(NetTaskRequest.UNSET_USER_ID, post);
-		NetTask task = new NetTask();
-		task.execute(request);
-	}
+	private static final String REJECTED = "_rejected";
 	
 	
 	
 	/**
-	 * Sets user property. 
-	 * @param property
+	 * Returns error envelope of the journaled request the server rejected for good,
+	 * the journal acknowledges it instead of retrying. Records the rejection.
+	 * @param record - rejected request
+	 * @param status - HTTP status or {@link TraceBuffer} failure cause
+	 * @param reason - error message
+	 * @return error envelope
 	 */
-	public void setUserProperty(Map<String, String> property){
-	
-		if(property == null || property.size() == 0) return;
-		
-		String userId = getUserId(); 
+	private static JSONObject rejected(Record record, int status, String reason){
 		
-		if(TextUtils.isEmpty(userId)) return;
-		
-		HttpPost post = new HttpPost(URI_BASE + URI_SET);
+		if(DLog.e())
+			DLog.e(LOG_TAG + ".rejected()", "Request dropped from journal | action=" 
+					+ record.action + " | " + reason);
 		
-		post.setHeader("key", AppBlast.projectKey);
-		post.setHeader("Content-Type", "application/json");
-		StringEntity entity = new JSONRequest(userId)
-			.setUserProperties(property)
-			.getEntityString();
+		DLog.t(TraceBuffer.JOURNAL_REJECTED, record.action, status);
+		SdkMetrics.count(SdkMetrics.JOURNAL_REJECTED);
 		
-		post.setEntity(entity);
+		JSONObject envelope = new JSONObject();
 		
-		NetTaskRequest request = new NetTaskRequest(NetTaskRequest.SET_USER_PROPERTY, post);
-		NetTask task = new NetTask();
-		task.execute(request);
+		try {
+			envelope.put(BlastConfig.ERROR, reason);
+		} catch (JSONException e) {
+			/* Key is not null */
+		}
 		
+		return envelope;
 	}
 	
 	
 	
 	/**
-	 * 
-	 * @param delta2
+	 * Returns true if request that failed with the status may succeed later
 	 */
-	void postUsageInfo(long delta1, long delta2, int action){
-		
-		if(this.config == null) return;
-		
-		if(delta1 == 0 || delta2 == 0) return;
-		
-		String userId = this.pref.getString(SP_USER_ID, null);
-		
-		if(TextUtils.isEmpty(userId)) return;
-		
-		HttpPost post = new HttpPost(URI_BASE + URI_MARK);
-		
-		post.setHeader("key", AppBlast.projectKey);
-		post.setHeader("Content-Type", "application/json");
-		
-		String notificationId = this.config.getId();
-		
-		StringEntity entity = new JSONRequest(userId)
-			.setMarkData(delta1, delta2, action, notificationId)
-			.getEntityString();
-		
-		post.setEntity(entity);
-		
-		NetTaskRequest request = new NetTaskRequest(NetTaskRequest.POST_MARK, post);
-		
-		NetTask task = new NetTask();
-		task.execute(request);
+	private static boolean isTransient(int statusCode){
+		return statusCode >= 500 
+				|| statusCode == HttpStatus.SC_REQUEST_TIMEOUT 
+				|| statusCode == 429 /* Too Many Requests */;
 	}
 	
 	
 	
-	
 	/**
-	 * 
-	 * @author Maksym Fedyay
+	 * Executes request and parses response.
+	 * Should be called in background thread.
+	 * @param request - {@link HttpUriRequest}
+	 * @return response, envelope with the {@link AppBlast#REJECTED} status if server 
+	 * rejected the request for good, or null if request failed and may be retried
 	 */
-	static class NetTaskRequest {
-
-		public static final int GET_CONFIG = 10;
-		public static final int POST_MARK = 11;
-		public static final int SET_USER_ID = 12;
-		public static final int SET_USER_PROPERTY = 13;
-		public static final int UNSET_USER_ID = 14;
-
-		private HttpUriRequest request;
-
-		private int action;
-
-		public NetTaskRequest(int action, HttpUriRequest request) {
-
-			if (action == 0 || request == null)
-				throw new IllegalArgumentException(
-						"Illegal arguments passed to NetTaskDesctiption constructor.");
-
-			this.action = action;
-			this.request = request;
-		}
-
-		public int getAction() {
-			return this.action;
-		}
-
-		public HttpUriRequest getRequest() {
-			return this.request;
-		}
+	private static JSONObject execute(HttpUriRequest request){
+		
+		HttpResponse response = null;
+		
+		try {
+			
+			response = HttpTransport.getInstance().execute(request);
+			StatusLine statusLine = response.getStatusLine();
+			int statusCode = statusLine.getStatusCode();
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".execute()", statusLine.toString());
 
-		public URI getURI() {
-			return this.request.getURI();
+			if(statusCode != 200){
+				
+				SdkMetrics.count(SdkMetrics.FAILURE_HTTP);
+				
+				if(isTransient(statusCode)) return null;
+				
+				JSONObject envelope = new JSONObject();
+				envelope.put(BlastConfig.ERROR, statusLine.toString());
+				envelope.put(REJECTED, statusCode);
+				return envelope;
+			}
+			
+			JSONObject result = readBody(response.getEntity());
+			
+			if(result != null && !result.isNull(BlastConfig.ERROR))
+				SdkMetrics.count(SdkMetrics.FAILURE_SERVER);
+			
+			return result;
+			
+		} catch (ClientProtocolException e) {
+			SdkMetrics.count(SdkMetrics.FAILURE_IO);
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".execute()", e.getMessage());
+		} catch (IOException e) {
+			SdkMetrics.count(SdkMetrics.FAILURE_IO);
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".execute()", e.getMessage());
+		} catch (JSONException e) {
+			SdkMetrics.count(SdkMetrics.FAILURE_PARSE);
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".execute()", e.getMessage());
+		} finally {
+			/* Return connection to the pool */
+			HttpTransport.release(request, response);
 		}
-
+		
+		return null;
 	}
 	
 	
 	
 	/**
-	 * 
-	 * @author Maksym Fedyay
+	 * Parses response body straight from the stream,
+	 * stops at error envelope. Binary body is read by {@link MessagePack},
+	 * any other body is read as JSON.
+	 * @param entity - response entity
+	 * @return parsed body or null if there is no body or it is too large
 	 */
-	private class NetTask extends AsyncTask<NetTaskRequest, Void, JSONObject>{
-
+	private static JSONObject readBody(HttpEntity entity) throws IOException, JSONException{
 		
-		private int action;
+		if(entity == null) return null;
 		
-		/* Log creation */
-		public NetTask(){
-			
-			if(DLog.i())
-				DLog.i(LOG_TAG + ".NetTask", "Initialized | " + this.toString());
+		if(entity.getContentLength() > JSONStreamReader.MAX_BODY_SIZE){
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".readBody()", "Response is too large | " + entity.getContentLength());
+			return null;
 		}
 		
-		/* Log death */
-		@Override
-		protected void finalize() throws Throwable {
-			super.finalize();
+		InputStream is = entity.getContent();
+		
+		try {
+			Header contentType = entity.getContentType();
 			
-			if(DLog.i())
-				DLog.i(LOG_TAG + ".NetTask", "Destroyed | " + this.toString());
+			if(contentType != null && MessagePack.isBinary(contentType.getValue()))
+				return MessagePack.readObject(is, JSONStreamReader.MAX_BODY_SIZE, BlastConfig.ERROR);
 			
+			return new JSONStreamReader(is, JSONStreamReader.MAX_BODY_SIZE)
+				.readObject(BlastConfig.ERROR);
+		} finally {
+			is.close();
 		}
+	}
+	
+	
+	
+	/**
+	 * Handles successful response. Called on the main thread.
+	 * @param action - one of {@link NetTaskRequest} actions
+	 * @param result - response
+	 * @param tag - additional data of the request, user id of
+	 * {@link NetTaskRequest#SET_USER_ID} request, fingerprint of
+	 * {@link NetTaskRequest#SET_USER_PROPERTY} request
+	 */
+	private void onResponse(int action, JSONObject result, String tag){
 		
-		
-		/*
-		 * 
-		 */
-		@Override
-		protected JSONObject doInBackground(NetTaskRequest... params) {
-			
-			JSONObject result = null;
-			
-			DefaultHttpClient client = new DefaultHttpClient();
-			client.setRedirectHandler(new DefaultRedirectHandler());
-			
-			NetTaskRequest descriptor = params[0];
-			HttpUriRequest request = descriptor.getRequest();
-			
-			this.action = descriptor.getAction();
-			
+		/* Log the response */
+		if(DLog.i())
 			try {
-				
-				HttpResponse response = client.execute(request);
-				StatusLine statusLine = response.getStatusLine();
-				int statusCode = statusLine.getStatusCode();
-				
-				if(DLog.i())
-					DLog.i(LOG_TAG + ".NetTask.doInBackground()", statusLine.toString());
-
-				if(statusCode != 200) return null;
-					
-				HttpEntity entity = response.getEntity();
-				InputStream is = entity.getContent();
-				
-				Scanner scanner = new Scanner(is);
-				String json = scanner.useDelimiter("\\A").next();
-				
-				scanner.close();
-				is.close();
-				
-				result = (JSONObject) new JSONTokener(json).nextValue();
-				
-			} catch (ClientProtocolException e) {
-				if(DLog.e())
-					DLog.e(LOG_TAG + ".NetTask.doInBackground()", e.getMessage());
-			} catch (IOException e) {
-				if(DLog.e())
-					DLog.e(LOG_TAG + ".NetTask.doInBackground()", e.getMessage());
+				DLog.i(LOG_TAG + ".onResponse()", result.toString(3));
 			} catch (JSONException e) {
 				if(DLog.e())
-					DLog.e(LOG_TAG + ".NetTask.doInBackground()", e.getMessage());
+					DLog.e(LOG_TAG + ".onResponse()", e.getMessage());
 			}
-			
-			return result;
-		}
 		
 		
-		/*
-		 * 
-		 */
-		@Override
-		protected void onPostExecute(JSONObject result) {
-			
-			/* Check if result is not null */
-			if(result == null){
-				if(DLog.e())
-					DLog.e(LOG_TAG + ".NetTask.onPostExecute()", 
-							"Request with code " + this.action + " receive NULL response."
-									+ "This may be caused by lack of network connection.");
-				return;
-			}
-			
-			
-			/* Log the response */
-			if(DLog.i())
+		
+		/* Check if error string is null */
+		if(!result.isNull(BlastConfig.ERROR)){
+			if(DLog.e())
 				try {
-					DLog.i(LOG_TAG + ".NetTask.onPostExecute()", result.toString(3));
+					DLog.e(LOG_TAG + ".onResponse()", 
+							"Response come with error [" +result.getString(BlastConfig.ERROR)+"]");
 				} catch (JSONException e) {
 					if(DLog.e())
-						DLog.e(LOG_TAG + ".NetTask.onPostExecute()", e.getMessage());
+						DLog.e(LOG_TAG + ".onResponse()", e.getMessage());
 				}
 			
+			this.userId = null;
 			
+			return;
+		}
+		
+		/* PostExecute actions */
+		switch (action) {
+		
+		case NetTaskRequest.POST_MARK:
 			
-			/* Check if error string is null */
-			if(!result.isNull(BlastConfig.ERROR)){
-				if(DLog.e())
-					try {
-						DLog.e(LOG_TAG + ".NetTask.onPostExecute()", 
-								"Response come with error [" +result.getString(BlastConfig.ERROR)+"]");
-					} catch (JSONException e) {
-						if(DLog.e())
-							DLog.e(LOG_TAG + ".NetTask.onPostExecute()", e.getMessage());
-					}
-				
-				// TODO : Try to pass user id thru the NetTaskRequest 
-				AppBlast.this.userId = null;
-				
-				return;
-			}
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".onResponse()", "Notification statistics uploaded successfully.");
 			
-			/* PostExecute actions */
-			switch (this.action) {
+			// XXX: Nothing to do
 			
-			case NetTaskRequest.GET_CONFIG:
-				
-				if(DLog.i())
-					DLog.i(LOG_TAG + ".NetTask.onPostExecute()", "Notification configuration loaded successfully.");
-				
-				new BlastConfig(result, AppBlast.this);
-				
-				break;
-
-			case NetTaskRequest.POST_MARK:
-				
-				if(DLog.i())
-					DLog.i(LOG_TAG + ".NetTask.onPostExecute()", "Notification statistics uploaded successfully.");
-				
-				// XXX: Nothing to do
-				
-				break;
+			break;
+		
+		case NetTaskRequest.SET_USER_ID:
 			
-			case NetTaskRequest.SET_USER_ID:
-				
-				if(DLog.i())
-					DLog.i(LOG_TAG + ".NetTask.onPostExecute()", "User id set successfully.");
-				
-				AppBlast.this.saveUserId();
-				
-				break;
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".onResponse()", "User id set successfully.");
 			
-			case NetTaskRequest.UNSET_USER_ID:
-				
-				if(DLog.i())
-					DLog.i(LOG_TAG + ".NetTask.onPostExecute()", "User id deleted successfully.");
-				
-				break;
+			saveUserId(tag);
 			
-			case NetTaskRequest.SET_USER_PROPERTY:
-				
-				if(DLog.i())
-					DLog.i(LOG_TAG + ".NetTask.onPostExecute()", "User property set successfully.");
-				
-				break;
-			}
+			break;
+		
+		case NetTaskRequest.UNSET_USER_ID:
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".onResponse()", "User id deleted successfully.");
+			
+			break;
+		
+		case NetTaskRequest.SET_USER_PROPERTY:
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".onResponse()", "User property set successfully.");
 			
+			break;
 		}
 		
 	}
-
+	
 	
 	
 	/**
@@ -713,7 +1548,7 @@ public class AppBlast implements OnMediaLoadedListener{
 		
 		if (this.isMediaReady && activity != null){
 			
-			AppBlast.this.timer.cancel();
+			this.handler.removeCallbacks(this.backgroundCheck);
 			this.importanceCode = 0;
 			
 			if(DLog.i())
@@ -723,15 +1558,15 @@ public class AppBlast implements OnMediaLoadedListener{
 			
 		} else if (activity == null){
 			
-			if(this.importanceCode == 0) {
+			if(this.importanceCode == 0 && !this.tracked) {
 				if(DLog.i())
-					DLog.i(LOG_TAG + ".setBlastPoint()", "Timer started");
-				startTimer();
+					DLog.i(LOG_TAG + ".setBlastPoint()", "Background check scheduled");
+				this.handler.postDelayed(this.backgroundCheck, BACKGROUND_DELAY);
 			}
 			
 		} else if (activity != null) {
 			
-			AppBlast.this.timer.cancel();
+			this.handler.removeCallbacks(this.backgroundCheck);
 			
 			if(!(activity instanceof ActBlast) && (this.importanceCode == 400 || this.importanceCode == 300)){
 				if(DLog.i())
@@ -754,6 +1589,9 @@ public class AppBlast implements OnMediaLoadedListener{
 	 */
 	private void startActivity(){
 		Intent intent = new Intent(this.activity, ActBlast.class);
+		DLog.t(TraceBuffer.SHOWN, 0, 0);
+		this.media.getTimeline().mark(BlastTimeline.PHASE_START_ACTIVITY);
+		ConfigCache.getInstance(getApplicationContext()).shown(this.config);
 		this.activity.startActivity(intent);
 		this.isMediaReady = false;
 	}
@@ -774,6 +1612,13 @@ public class AppBlast implements OnMediaLoadedListener{
 	
 	
 	
+	/**
+	 * Loaded media files of the notification
+	 */
+	private BlastMedia media;
+	
+	
+	
 	/*
 	 * BlastConfig#OnMediaLoaderListener implementation
 	 */
@@ -788,6 +1633,7 @@ public class AppBlast implements OnMediaLoadedListener{
 				DLog.i(LOG_TAG + ".onMediaLoaded()@OnMediaLoadedListener", "Data ready.");
 			
 			this.config = (BlastConfig) args[0];
+			this.media = (BlastMedia) args[1];
 			
 			if(this.activity != null){
 				startActivity();
@@ -795,6 +1641,8 @@ public class AppBlast implements OnMediaLoadedListener{
 				this.isMediaReady = true;
 			}
 			
+			reportMetrics();
+			
 			break;
 			
 		case OnMediaLoadedListener.ERROR_WHILE_LOADING:
@@ -802,6 +1650,8 @@ public class AppBlast implements OnMediaLoadedListener{
 			if(DLog.e())
 				DLog.e(LOG_TAG, "Error while loading media data. Notification creation skipped.");
 			
+			reportMetrics();
+			
 			break;
 		}
 		
@@ -822,6 +1672,19 @@ public class AppBlast implements OnMediaLoadedListener{
 	
 	
 	
+	/**
+	 * Returns {@link BlastMedia} of the notification.
+	 * The call of this method is invalid until
+	 * {@link OnMediaLoadedListener#onMediaLoaded(int, Object...)}
+	 * callback.
+	 * @return
+	 */
+	BlastMedia getMedia(){
+		return this.media;
+	}
+	
+	
+	
 //	/**
 //	 * Remove reference to BlastConfig 
 //	 */
@@ -857,6 +1720,7 @@ public class AppBlast implements OnMediaLoadedListener{
 	void notifyApplication(int code, Object...params){
 		// Release all resources
 		this.config = null;
+		this.media = null;
 		this.activity = null;
 		
 		if(this.listener == null) return;
@@ -867,43 +1731,84 @@ public class AppBlast implements OnMediaLoadedListener{
 	
 	
 	/*
-	 * Checking current process importance code in background  
+	 * Tracking of the process going to background  
+	 */
+	
+	
+	
+	/**
+	 * Time in milliseconds without blast point after which process
+	 * is considered to be in background, used when activity callbacks
+	 * are not available.
 	 */
+	private static final long BACKGROUND_DELAY = 2000;
 	
-	private Timer timer;
 	
+	
+	/**
+	 * {@link RunningAppProcessInfo#IMPORTANCE_BACKGROUND} when process
+	 * went to background, 0 after it is back to foreground.
+	 */
 	private int importanceCode = 0;
 	
 	
+	
 	/**
-	 * 
+	 * True if background transitions are reported by {@link ForegroundTracker}
 	 */
-	private void startTimer(){
-		
-		if(this.timer.purge() == 0){
-			this.timer = new Timer();
+	private boolean tracked;
+	
+	
+	
+	/**
+	 * Detects background when blast point was not set for a while
+	 */
+	private final Runnable backgroundCheck = new Runnable() {
+		@Override
+		public void run() {
+			AppBlast.this.onBackground();
 		}
+	};
+	
+	
+	
+	/**
+	 * Registers {@link ForegroundTracker}
+	 * @param application - the application
+	 */
+	@SuppressLint("NewApi")
+	private void trackForeground(Application application){
 		
-		
-		TimerTask tt = new TimerTask() {
+		application.registerActivityLifecycleCallbacks(new ForegroundTracker(new ForegroundTracker.Listener() {
 			@Override
-			public void run() {
-				AppBlast.this.importanceCode = checkProcessState();
-				
-				if(AppBlast.this.importanceCode == 400 
-						|| AppBlast.this.importanceCode == 300 ){
-//						|| AppBlast.this.importanceCode == 500){ // < 500 probably will never be the case
-					
-					if(DLog.i())
-						DLog.i(LOG_TAG + " | Timer", "Process went to background");
-					
-					AppBlast.this.timer.cancel();
-					
-				}
+			public void onBackground() {
+				AppBlast.this.onBackground();
 			}
-		};
+		}));
+		
+		this.tracked = true;
+	}
+	
+	
+	
+	/**
+	 * Called on the main thread when process went to background.
+	 * Notification will be loaded again when process returns to foreground.
+	 */
+	private void onBackground(){
+		
+		if(this.importanceCode != 0) return;
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".onBackground()", "Process went to background");
+		
+		this.importanceCode = RunningAppProcessInfo.IMPORTANCE_BACKGROUND;
+		
+		/* Upload queued data before process may be killed */
+		this.properties.flush();
+		this.marks.flush();
 		
-		this.timer.scheduleAtFixedRate(tt, 2000, 5000);
+		reportMetrics();
 	}
 	
 	
@@ -911,7 +1816,10 @@ public class AppBlast implements OnMediaLoadedListener{
 	 * Returns the importance code of current process.
 	 * @return importance code
 	 * @see {@link ActivityManager.RunningAppProcessInfo#importance} 
+	 * @deprecated AppBlast does not poll process state anymore, 
+	 * this method makes IPC call and should not be called frequently. 
 	 */
+	@Deprecated
 	public int checkProcessState() {
 		ActivityManager am = (ActivityManager) AppBlast.application.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
 		List<RunningAppProcessInfo> list2 = am.getRunningAppProcesses();
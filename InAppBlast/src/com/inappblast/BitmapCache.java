@@ -0,0 +1,243 @@
+package com.inappblast;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * BitmapCache keeps decoded notification images in memory, so the
+ * next notification or the same notification after configuration reload
+ * does not decode images again. Size of the cache is limited by the
+ * number of bytes occupied by bitmaps, not by the number of bitmaps.
+ * Least recently used bitmaps are removed first.
+ * Bitmaps are stored by the content hash of the media file
+ * (see {@link MediaCache}) and the index of the asset it was decoded for.
+ * @author Maksym Fedyay
+ */
+class BitmapCache {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> BitmapCache";
+	
+	
+	
+	/**
+	 * Part of the maximum heap size that may be used by the cache
+	 */
+	private static final int HEAP_FRACTION = 8;
+	
+	
+	
+	/**
+	 * Shared instance
+	 */
+	private static BitmapCache instance;
+	
+	
+	
+	/**
+	 * Returns shared cache, creates it on the first call.
+	 * The cache size is 1/{@link BitmapCache#HEAP_FRACTION} of the maximum heap size.
+	 * @return {@link BitmapCache}
+	 */
+	static synchronized BitmapCache getInstance(){
+		if(instance == null)
+			instance = new BitmapCache(Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Bitmaps in access order, the eldest is the first
+	 */
+	private final LinkedHashMap<String, Bitmap> map = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+	
+	
+	
+	/**
+	 * Maximum size in bytes
+	 */
+	private final long maxSize;
+	
+	
+	
+	/**
+	 * Current size in bytes
+	 */
+	private long size;
+	
+	
+	
+	/*
+	 * Statistic
+	 */
+	private int hitCount;
+	private int missCount;
+	private int evictionCount;
+	
+	
+	
+	/**
+	 * Constructs cache with the given size limit.
+	 * @param maxSize - maximum size in bytes
+	 */
+	BitmapCache(long maxSize){
+		this.maxSize = maxSize;
+	}
+	
+	
+	
+	/**
+	 * Returns bitmap for the key, or null if bitmap is not cached.
+	 * @param key - content hash of the media file and asset index
+	 * @return {@link Bitmap}
+	 */
+	synchronized Bitmap get(String key){
+		
+		Bitmap bitmap = key == null ? null : this.map.get(key);
+		
+		if(bitmap != null){
+			this.hitCount++;
+		} else {
+			this.missCount++;
+		}
+		
+		return bitmap;
+	}
+	
+	
+	
+	/**
+	 * Puts bitmap to the cache and removes least recently used
+	 * bitmaps if the cache size exceeds the limit.
+	 * @param key - content hash of the media file and asset index
+	 * @param bitmap - decoded bitmap
+	 */
+	synchronized void put(String key, Bitmap bitmap){
+		
+		if(key == null || bitmap == null) return;
+		
+		Bitmap previous = this.map.put(key, bitmap);
+		
+		this.size += sizeOf(bitmap);
+		
+		if(previous != null)
+			this.size -= sizeOf(previous);
+		
+		trim();
+	}
+	
+	
+	
+	/**
+	 * Removes all bitmaps.
+	 */
+	synchronized void clear(){
+		this.map.clear();
+		this.size = 0;
+	}
+	
+	
+	
+	/**
+	 * Returns current size in bytes
+	 * @return size
+	 */
+	synchronized long size(){
+		return this.size;
+	}
+	
+	
+	
+	/**
+	 * Returns maximum size in bytes
+	 * @return size
+	 */
+	long maxSize(){
+		return this.maxSize;
+	}
+	
+	
+	
+	/**
+	 * Returns number of {@link BitmapCache#get(String)} calls that returned bitmap
+	 * @return count
+	 */
+	synchronized int hitCount(){
+		return this.hitCount;
+	}
+	
+	
+	
+	/**
+	 * Returns number of {@link BitmapCache#get(String)} calls that returned null
+	 * @return count
+	 */
+	synchronized int missCount(){
+		return this.missCount;
+	}
+	
+	
+	
+	/**
+	 * Returns number of bitmaps removed because of the size limit
+	 * @return count
+	 */
+	synchronized int evictionCount(){
+		return this.evictionCount;
+	}
+	
+	
+	
+	/*
+	 *
+	 */
+	@Override
+	public synchronized String toString() {
+		return "BitmapCache [size=" + this.size + " maxSize=" + this.maxSize
+				+ " hits=" + this.hitCount + " misses=" + this.missCount
+				+ " evictions=" + this.evictionCount + "]";
+	}
+	
+	
+	
+	/**
+	 * Removes least recently used bitmaps until size fits the limit
+	 */
+	private void trim(){
+		
+		Iterator<Map.Entry<String, Bitmap>> it = this.map.entrySet().iterator();
+		
+		while(this.size > this.maxSize && it.hasNext()){
+			
+			Map.Entry<String, Bitmap> eldest = it.next();
+			
+			it.remove();
+			
+			this.size -= sizeOf(eldest.getValue());
+			this.evictionCount++;
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".trim()", "Evicted | " + eldest.getKey());
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns number of bytes occupied by the bitmap pixels
+	 * @param bitmap - {@link Bitmap}
+	 * @return size in bytes
+	 */
+	static long sizeOf(Bitmap bitmap){
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+}
@@ -1,27 +1,16 @@
 package com.inappblast;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Date;
-
-import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.DefaultRedirectHandler;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.graphics.Color;
-import android.graphics.drawable.BitmapDrawable;
-import android.os.AsyncTask;
 
 /**
  * BlastConfig provides "flat" access to notification configuration data.
- * And asynchronously loads media data that is mentioned in configuration data.
- * But loading will happens only in case if {@link OnMediaLoadedListener}
- * instance passed to the constructor (pass <code>null</code> if no loading needed). 
+ * Configuration is decoded once in the constructor, colors are parsed
+ * and required fields are validated, the source {@link JSONObject} is not kept.
+ * BlastConfig is immutable, so it can be shared between threads and kept in caches.
+ * Media files mentioned in configuration data are loaded by {@link MediaLoader},
+ * use {@link BlastConfig#loadMedia(BlastTimeline, OnMediaLoadedListener)} to start loading.
  * @author Maksym Fedyay
  */
 class BlastConfig {
@@ -52,127 +41,163 @@ class BlastConfig {
 	public static final String TYPE = "type";
 	public static final String NOTIFICATION = "notification";
 	public static final String VARIATION = "variation";
-
-	
-	
-	/**
-	 * 
-	 */
-	private long timerStart;
-	
-	
 	
-	/**
-	 * JSONObject that contains configuration data
-	 */
-	private JSONObject o;
-
 	
 	
-	/**
-	 * The {@link OnMediaLoadedListener} listener
+	/*
+	 * Decoded configuration data
 	 */
-	private OnMediaLoadedListener listener;
+	private final String id;
+	private final String cta;
+	private final int ctaColor;
+	private final int ctaColorHighlighted;
+	private final String ctaUrl;
+	private final String description;
+	private final String title;
+	private final String type;
+	private final String[] uris;
 	
 	
 	
 	/**
-	 * BlastConfig event listener should be used in order 
+	 * BlastConfig event listener should be used in order
 	 * to be notified about media file downloading result.
 	 * @author Maksym Fedyay
 	 */
 	public interface OnMediaLoadedListener{
-		
-
+			
+			
 			/**
 			 * All data successfully loaded and ready to use.
 			 * Additionally passed current BlastConfig instance
-			 * with the links to the loaded files.
+			 * and {@link BlastMedia} with the links to the loaded files.
 			 */
 		public static final int DATA_READY = 200;
 			
 			/**
-			 * While loading error occurred. Additional string parameters is 
-			 * passed that is describes the source of error.
+			 * While loading error occurred. Additionally passed
+			 * BlastConfig instance which media files failed to load.
 			 */
 		public static final int ERROR_WHILE_LOADING = 500;
 		
 		/**
 		 * Will be called in two cases. When all data is loaded successfully,
 		 * or in the case of loading error.
-		 * @param event - {@link LoadEvent} 
+		 * @param event - {@link LoadEvent}
 		 * @param args - optional parameters that can be supplied.
 		 */
 		void onMediaLoaded(int event, Object...args);
 		
 	}
 	
-
+	
 	
 	/**
-	 * Constructs a new <code>BlastConfig</code>. BlastConfig is a wrapper for a
-	 * {@link JSONObject}, and provides "flat" data access. Pass {@link OnMediaLoadedListener}
-	 * instance in constructor to initiate media loading, or null if no media loading needed.
+	 * Constructs a new <code>BlastConfig</code> from the configuration data.
 	 * @param {@link {@link JSONObject} - which contains configuration data. If
-	 *        null passed then {@link IllegalArgumentException} will be thrown.
-	 * @param listener - {@link OnMediaLoadedListener}
+	 *        null or invalid configuration passed then {@link IllegalArgumentException} will be thrown.
 	 */
-	public BlastConfig(JSONObject o, OnMediaLoadedListener listener) throws IllegalArgumentException {
+	public BlastConfig(JSONObject o) throws IllegalArgumentException {
 		
 		if (o == null){
 			throw new IllegalArgumentException(
 					"JSONObject that is passed to BlastConfig constructor can't be null."
 				);
 		}
-
-		this.o = o;
 		
-		timerStart = new Date().getTime();
+		JSONObject notification = o.optJSONObject(NOTIFICATION);
+		JSONObject variation = notification == null ? null : notification.optJSONObject(VARIATION);
+		
+		if(variation == null){
+			throw new IllegalArgumentException(
+					"Configuration data has no " + NOTIFICATION + "." + VARIATION + " object."
+				);
+		}
+		
+		this.id = getString(notification, ID);
+		this.cta = getString(variation, CTA);
+		this.ctaColor = getColor(variation, CTA_COLOR);
+		this.ctaColorHighlighted = getColor(variation, CTA_COLOR_HIGHLIGHTED);
+		this.ctaUrl = getString(variation, CTA_URL);
+		this.description = getString(variation, DESCRIPTION);
+		this.title = getString(variation, TITLE);
+		this.type = getString(variation, TYPE);
+		
+		this.uris = new String[3];
+		this.uris[MediaLoader.CLOSE_ASSET] = getString(variation, CLOSE_IMAGE_URL);
+		this.uris[MediaLoader.OVERLAY_ASSET] = getString(variation, GRADIENT_OVERLAY_URL);
+		this.uris[MediaLoader.IMAGE_ASSET] = getString(variation, IMAGE_URL);
 		
-		if(listener != null){
-			this.listener = listener;
-			MediaLoader loader = new MediaLoader();
-			loader.execute(getURIs());
+		if(this.id == null || this.uris[MediaLoader.IMAGE_ASSET] == null){
+			throw new IllegalArgumentException(
+					"Configuration data has no " + ID + " or " + IMAGE_URL + " field."
+				);
 		}
 		
 		if(DLog.i())
 			DLog.i(LOG_TAG, "Instance created.");
 		
 	}
-
+	
 	
 	
 	/**
-	 * Returns error description. If no error then empty string.
-	 * @return Error description.
+	 * Returns string value of the field, or null if field is absent
 	 */
-	// TODO : check what returns if no error
-	public String getError() {
-		try {
-			return o.getString(ERROR);
-		} catch (JSONException e) {
+	private static String getString(JSONObject o, String name){
+		
+		if(o.isNull(name)){
 			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
+				DLog.e(LOG_TAG, "No value for " + name);
 			return null;
 		}
+		
+		return o.optString(name);
 	}
-
+	
 	
 	
 	/**
-	 * Returns notification id
-	 * @return String with notification id.
+	 * Returns color value of the field in RRGGBB or AARRGGBB format,
+	 * or 0 if field is absent or can't be parsed.
 	 */
-	public String getId() {
+	private static int getColor(JSONObject o, String name){
+		
+		String sColor = getString(o, name);
+		
+		if(sColor == null) return 0;
+		
 		try {
-			return o.getJSONObject(NOTIFICATION).getString(ID);
-		} catch (JSONException e) {
+			return Color.parseColor("#" + sColor);
+		} catch (IllegalArgumentException e) {
 			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return null;
+				DLog.e(LOG_TAG, "Invalid color " + sColor + " for " + name);
+			return 0;
 		}
 	}
-
+	
+	
+	
+	/**
+	 * Starts loading of media files mentioned in configuration data.
+	 * Result will be delivered to the listener on the main thread.
+	 * @param timeline - timeline of the notification load
+	 * @param listener - {@link OnMediaLoadedListener}
+	 */
+	public void loadMedia(BlastTimeline timeline, OnMediaLoadedListener listener){
+		new MediaLoader(this, timeline, listener).execute(getURIs());
+	}
+	
+	
+	
+	/**
+	 * Returns notification id
+	 * @return String with notification id.
+	 */
+	public String getId() {
+		return this.id;
+	}
+	
 	
 	
 	/**
@@ -180,16 +205,9 @@ class BlastConfig {
 	 * @return String with call to action.
 	 */
 	public String getCta() {
-		try {
-			return o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(CTA);
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return null;
-		}
+		return this.cta;
 	}
-
+	
 	
 	
 	/**
@@ -197,18 +215,9 @@ class BlastConfig {
 	 * @return String with color
 	 */
 	public int getCtaColor() {
-		try {
-			String sColor = "#" + o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(CTA_COLOR);
-			int color = Color.parseColor(sColor);
-			return color;
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return 0;
-		}
+		return this.ctaColor;
 	}
-
+	
 	
 	
 	/**
@@ -216,18 +225,9 @@ class BlastConfig {
 	 * @return
 	 */
 	public int getCtaColorHighlighted() {
-		try {
-			String sColor = "#" + o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(CTA_COLOR_HIGHLIGHTED);
-			int color = Color.parseColor(sColor);
-			return color;
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return 0;
-		}
+		return this.ctaColorHighlighted;
 	}
-
+	
 	
 	
 	/**
@@ -236,16 +236,9 @@ class BlastConfig {
 	 * @return String with URL.
 	 */
 	public String getCtaUrl() {
-		try {
-			return o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(CTA_URL);
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return null;
-		}
+		return this.ctaUrl;
 	}
-
+	
 	
 	
 	/**
@@ -253,16 +246,9 @@ class BlastConfig {
 	 * @return String with description
 	 */
 	public String getDescription() {
-		try {
-			return o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(DESCRIPTION);
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return null;
-		}
+		return this.description;
 	}
-
+	
 	
 	
 	/**
@@ -270,16 +256,9 @@ class BlastConfig {
 	 * @return String with title
 	 */
 	public String getTitle() {
-		try {
-			return o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(TITLE);
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return null;
-		}
+		return this.title;
 	}
-
+	
 	
 	
 	/**
@@ -287,16 +266,9 @@ class BlastConfig {
 	 * @return
 	 */
 	public String getType() {
-		try {
-			return o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(TYPE);
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-			return null;
-		}
+		return this.type;
 	}
-
+	
 	
 	
 	/**
@@ -307,161 +279,8 @@ class BlastConfig {
 	 * String[2] is IMAGE_URL <br/>
 	 * @return String array
 	 */
-	private String[] getURIs() {
-		String[] sUrls = new String[3];
-		try {
-			sUrls[0] = o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(CLOSE_IMAGE_URL);
-			sUrls[1] = o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(GRADIENT_OVERLAY_URL);
-			sUrls[2] = o.getJSONObject(NOTIFICATION).getJSONObject(VARIATION)
-					.getString(IMAGE_URL);
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-		}
-		return sUrls;
+	String[] getURIs() {
+		return this.uris.clone();
 	}
 
-	
-	
-	/**
-	 * {@link BitmapDrawable} array, for containing 
-	 * notification Drawable data 
-	 */
-	private BitmapDrawable[] bitmaps;
-	
-	
-	
-	/**
-	 * 
-	 * @author Maksym Fedyay
-	 */
-	private class MediaLoader extends AsyncTask<String[], Void, BitmapDrawable[]>{
-		
-		
-		
-		/* Log creation */
-		public MediaLoader(){
-			if(DLog.i())
-				DLog.i(LOG_TAG + ".MediaLoader", "Initialized | " + this.toString());
-		}
-		
-		
-		
-		/* Log death */
-		@Override
-		protected void finalize() throws Throwable {
-			if(DLog.i())
-				DLog.i(LOG_TAG + ".MediaLoader", "Destroyed | " + this.toString());
-			super.finalize();
-		}
-		
-		
-		
-		/*
-		 * 
-		 */
-		@Override
-		protected BitmapDrawable[] doInBackground(String[]... params) {
-			
-			DefaultHttpClient client = new DefaultHttpClient();
-			client.setRedirectHandler(new DefaultRedirectHandler());
-			
-			BitmapDrawable[] bitmaps = new BitmapDrawable[params[0].length];
-			
-			String[] sUrls = params[0];
-			
-			for (int i = 0; i < params[0].length; i++) {
-				
-				/* Continue if URL is null */
-				if(sUrls[i] == null){
-					bitmaps[i] = null;
-					continue;
-				}
-				
-				try {
-					if(DLog.i())
-						DLog.i(LOG_TAG + ".MediaLoader.doInBackground()", "Start loading | " + sUrls[i]);
-					
-					HttpGet request = new HttpGet(sUrls[i]);
-					HttpResponse response = client.execute(request);
-					StatusLine statusLine = response.getStatusLine();
-					
-					int statusCode = statusLine.getStatusCode();
-					
-					if(DLog.i())
-						DLog.i(LOG_TAG, "Loading finished | " + statusLine.toString());
-
-					if(statusCode == 200){
-						InputStream is = response.getEntity().getContent();
-						
-						BitmapDrawable drawable = new BitmapDrawable(AppBlast
-								.getSharedInstance().getApplicationContext()
-								.getResources(), is);
-						
-						bitmaps[i] = drawable;
-					}
-					
-				} catch (ClientProtocolException e) {
-					if(DLog.e())
-						DLog.e(LOG_TAG, e.getMessage());
-				} catch (IOException e) {
-					if(DLog.e())
-						DLog.e(LOG_TAG, e.getMessage());
-				}
-			}
-			
-			return bitmaps;
-		}
-		
-		
-		
-		/*
-		 * 
-		 */
-		@Override
-		protected void onPostExecute(BitmapDrawable[] result) {
-			
-			if(result == null){
-				BlastConfig.this.listener.onMediaLoaded(OnMediaLoadedListener.ERROR_WHILE_LOADING);
-				return;
-			}
-			
-			BlastConfig.this.bitmaps = result;
-			BlastConfig.this.listener.onMediaLoaded(OnMediaLoadedListener.DATA_READY, BlastConfig.this);
-			
-		}
-	}
-	
-	
-	
-	/**
-	 * Returns Array of {@link BitmapDrawable}.
-	 * The contract is: <br/>
-	 * BitmapDrawable[0] is close image <br/>
-	 * BitmapDrawable[1] is gradient overlay <br/>
-	 * BitmapDrawable[2] is main background image <br/>
-	 * Call of this method is invalid until {@link OnMediaLoadedListener#onMediaLoaded(LoadEvent, Object...)} 
-	 * notification call about data loading success event.
-	 * The all before that will return <code>null</code> 
-	 * @return BitmapDrawable[]
-	 * @see BlastConfig#BlastConfig(JSONObject, OnMediaLoadedListener)
-	 */
-	public BitmapDrawable[] getBitmaps(){
-		return this.bitmaps;
-	}
-	
-	
-	
-	/**
-	 * Returns time delta in milliseconds.
-	 * This delta indicated time elapsed from {@link BlastConfig}
-	 * constructing moment to the moment of this method call.
-	 * @return
-	 */
-	public long getDelta(){
-		return new Date().getTime() - timerStart;
-	}
-	
 }
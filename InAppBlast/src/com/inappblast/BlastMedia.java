@@ -0,0 +1,118 @@
+package com.inappblast;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.SystemClock;
+
+/**
+ * BlastMedia describes media files of the notification that is
+ * ready to be shown. Files are referenced by the content hash, decoded bitmaps
+ * are kept in the shared {@link BitmapCache} and are pinned by BlastMedia,
+ * so the notification activity does not decode them on the main thread
+ * if the cache evicted them meanwhile.
+ * BlastMedia also keeps the moment when loading of the notification was started
+ * and the {@link BlastTimeline} of the load.
+ * @author Maksym Fedyay
+ */
+class BlastMedia {
+	
+	
+	
+	/**
+	 * Content hashes of the loaded media files,
+	 * the same order as {@link BlastConfig#getURIs()}.
+	 */
+	private final String[] keys;
+	
+	
+	
+	/**
+	 * Decoded bitmaps of the files, the same order as keys
+	 */
+	private final Bitmap[] bitmaps;
+	
+	
+	
+	/**
+	 * Time when notification loading was started
+	 */
+	private final long timerStart;
+	
+	
+	
+	/**
+	 * Timeline of the notification load
+	 */
+	private final BlastTimeline timeline;
+	
+	
+	
+	/**
+	 * Constructs media description.
+	 * @param keys - content hashes of the loaded files
+	 * @param bitmaps - decoded bitmaps of the loaded files
+	 * @param timerStart - {@link SystemClock#elapsedRealtime()} when notification loading was started
+	 * @param timeline - timeline of the notification load
+	 */
+	BlastMedia(String[] keys, Bitmap[] bitmaps, long timerStart, BlastTimeline timeline){
+		this.keys = keys;
+		this.bitmaps = bitmaps;
+		this.timerStart = timerStart;
+		this.timeline = timeline;
+	}
+	
+	
+	
+	/**
+	 * Returns Array of {@link BitmapDrawable}.
+	 * The contract is: <br/>
+	 * BitmapDrawable[0] is close image <br/>
+	 * BitmapDrawable[1] is gradient overlay <br/>
+	 * BitmapDrawable[2] is main background image <br/>
+	 * Bitmaps pinned when loading finished are used, the shared {@link BitmapCache} 
+	 * is used only for files which bitmaps were not pinned.
+	 * @param resources - resources of the Activity where images will be shown
+	 * @return BitmapDrawable[]
+	 */
+	public BitmapDrawable[] getBitmaps(Resources resources){
+		
+		Context context = AppBlast.getSharedInstance().getApplicationContext();
+		
+		BitmapDrawable[] bitmaps = new BitmapDrawable[this.keys.length];
+		
+		for (int i = 0; i < this.keys.length; i++) {
+			Bitmap bitmap = this.bitmaps[i];
+			if(bitmap == null)
+				bitmap = MediaLoader.getBitmap(context, this.keys[i], i);
+			if(bitmap != null)
+				bitmaps[i] = new BitmapDrawable(resources, bitmap);
+		}
+		
+		return bitmaps;
+	}
+	
+	
+	
+	/**
+	 * Returns time delta in milliseconds.
+	 * This delta indicated time elapsed from the moment
+	 * notification loading was started to the moment of this method call.
+	 * @return
+	 */
+	public long getDelta(){
+		return SystemClock.elapsedRealtime() - this.timerStart;
+	}
+	
+	
+	
+	/**
+	 * Returns timeline of the notification load
+	 * @return {@link BlastTimeline}
+	 */
+	BlastTimeline getTimeline(){
+		return this.timeline;
+	}
+
+}
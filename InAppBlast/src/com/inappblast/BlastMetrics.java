@@ -0,0 +1,199 @@
+package com.inappblast;
+
+/**
+ * BlastMetrics is a snapshot of the library metrics: counters, 
+ * byte counts and latency histograms. Snapshot is immutable, 
+ * use {@link AppBlast#getMetrics()} to take a new one or 
+ * {@link AppBlast#setOnBlastMetricsListener(OnBlastMetricsListener)} to receive 
+ * snapshots when notification is loaded and when application goes to background.
+ * All values are counted since the process start.
+ * @author Maksym Fedyay
+ */
+public class BlastMetrics {
+	
+	
+	
+	/*
+	 * Counter names
+	 */
+	public static final String CONFIG_CACHE_HIT = "config.cache.hit";
+	public static final String CONFIG_CACHE_REVALIDATED = "config.cache.revalidated";
+	public static final String MEDIA_CACHE_HIT = "media.cache.hit";
+	public static final String MEDIA_CACHE_REVALIDATED = "media.cache.revalidated";
+	public static final String BITMAP_CACHE_HIT = "bitmap.cache.hit";
+	public static final String BITMAP_CACHE_MISS = "bitmap.cache.miss";
+	public static final String BITMAP_CACHE_EVICTION = "bitmap.cache.eviction";
+	public static final String FAILURE_IO = "failure.io";
+	public static final String FAILURE_HTTP = "failure.http";
+	public static final String FAILURE_PARSE = "failure.parse";
+	public static final String FAILURE_SERVER = "failure.server";
+	public static final String FAILURE_DECODE = "failure.decode";
+	public static final String TASK_DROPPED = "task.dropped";
+	public static final String JOURNAL_REJECTED = "journal.rejected";
+	public static final String QUEUE_DEPTH = "queue.depth";
+	public static final String BYTES_SENT = "bytes.sent";
+	public static final String BYTES_SENT_WIRE = "bytes.sent.wire";
+	public static final String BYTES_RECEIVED = "bytes.received";
+	public static final String BYTES_RECEIVED_WIRE = "bytes.received.wire";
+	
+	
+	
+	/*
+	 * Timer names, time is measured in milliseconds
+	 */
+	public static final String REQUEST_GET_CONFIG = "request.get_config";
+	public static final String REQUEST_POST_MARK = "request.post_mark";
+	public static final String REQUEST_SET_USER_ID = "request.set_user_id";
+	public static final String REQUEST_SET_USER_PROPERTY = "request.set_user_property";
+	public static final String REQUEST_UNSET_USER_ID = "request.unset_user_id";
+	public static final String MEDIA_DOWNLOAD = "media.download";
+	public static final String MEDIA_DECODE = "media.decode";
+	public static final String QUEUE_WAIT = "queue.wait";
+	
+	
+	
+	/*
+	 * Snapshot values
+	 */
+	private final String[] counterNames;
+	private final long[] counters;
+	private final String[] timerNames;
+	private final long[] counts;
+	private final long[] totals;
+	private final long[][] histograms;
+	private final long[] bounds;
+	
+	
+	
+	/**
+	 * Constructs snapshot, arrays are owned by the snapshot
+	 */
+	BlastMetrics(String[] counterNames, long[] counters, String[] timerNames, 
+			long[] counts, long[] totals, long[][] histograms, long[] bounds){
+		this.counterNames = counterNames;
+		this.counters = counters;
+		this.timerNames = timerNames;
+		this.counts = counts;
+		this.totals = totals;
+		this.histograms = histograms;
+		this.bounds = bounds;
+	}
+	
+	
+	
+	/**
+	 * Returns names of all counters
+	 * @return String array
+	 */
+	public String[] getCounterNames(){
+		return this.counterNames.clone();
+	}
+	
+	
+	
+	/**
+	 * Returns value of the counter
+	 * @param name - counter name, e.g. {@link BlastMetrics#FAILURE_IO}
+	 * @return value or 0 if there is no such counter
+	 */
+	public long getCounter(String name){
+		int i = indexOf(this.counterNames, name);
+		return i < 0 ? 0 : this.counters[i];
+	}
+	
+	
+	
+	/**
+	 * Returns names of all timers
+	 * @return String array
+	 */
+	public String[] getTimerNames(){
+		return this.timerNames.clone();
+	}
+	
+	
+	
+	/**
+	 * Returns number of measurements of the timer
+	 * @param name - timer name, e.g. {@link BlastMetrics#MEDIA_DOWNLOAD}
+	 * @return count or 0 if there is no such timer
+	 */
+	public long getCount(String name){
+		int i = indexOf(this.timerNames, name);
+		return i < 0 ? 0 : this.counts[i];
+	}
+	
+	
+	
+	/**
+	 * Returns sum of all measurements of the timer in milliseconds
+	 * @param name - timer name
+	 * @return total time or 0 if there is no such timer
+	 */
+	public long getTotalTime(String name){
+		int i = indexOf(this.timerNames, name);
+		return i < 0 ? 0 : this.totals[i];
+	}
+	
+	
+	
+	/**
+	 * Returns latency histogram of the timer. Value at index <code>i</code>
+	 * is number of measurements not longer than <code>getBucketBounds()[i]</code>
+	 * milliseconds and longer than the previous bound. The last value is number 
+	 * of measurements longer than the last bound.
+	 * @param name - timer name
+	 * @return histogram or null if there is no such timer
+	 */
+	public long[] getHistogram(String name){
+		int i = indexOf(this.timerNames, name);
+		return i < 0 ? null : this.histograms[i].clone();
+	}
+	
+	
+	
+	/**
+	 * Returns upper bounds of the histogram buckets in milliseconds
+	 * @return bounds
+	 */
+	public long[] getBucketBounds(){
+		return this.bounds.clone();
+	}
+	
+	
+	
+	/**
+	 * Returns index of the name or -1
+	 */
+	private static int indexOf(String[] names, String name){
+		for (int i = 0; i < names.length; i++) {
+			if(names[i].equals(name)) return i;
+		}
+		return -1;
+	}
+	
+	
+	
+	@Override
+	public String toString() {
+		
+		StringBuilder sb = new StringBuilder("BlastMetrics[");
+		
+		for (int i = 0; i < this.counterNames.length; i++) {
+			sb.append(this.counterNames[i]).append('=').append(this.counters[i]).append(", ");
+		}
+		
+		for (int i = 0; i < this.timerNames.length; i++) {
+			
+			if(this.counts[i] == 0) continue;
+			
+			sb.append(this.timerNames[i]).append("={count=").append(this.counts[i])
+				.append(", avg=").append(this.totals[i] / this.counts[i]).append("ms}, ");
+		}
+		
+		sb.setLength(sb.length() - 2);
+		
+		return sb.append(']').toString();
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.inappblast;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.SystemClock;
+
+/**
+ * BlastTimeline records when each phase of the notification load was reached,
+ * from the moment configuration request is queued to the first draw of the notification.
+ * Times are taken from the monotonic {@link SystemClock#elapsedRealtime()} clock
+ * and reported in milliseconds relative to the {@link BlastTimeline#QUEUED} phase.
+ * Phases are recorded from different threads, each phase is recorded once.
+ * Use {@link AppBlast#getTimeline()} to get timeline of the last notification.
+ * @author Maksym Fedyay
+ */
+public class BlastTimeline {
+	
+	
+	
+	/*
+	 * Phase names
+	 */
+	public static final String QUEUED = "queued";
+	public static final String CONNECTED = "connected";
+	public static final String FIRST_BYTE = "first_byte";
+	public static final String BODY_READ = "body_read";
+	public static final String PARSED = "parsed";
+	public static final String CLOSE_FETCHED = "close_fetched";
+	public static final String CLOSE_DECODED = "close_decoded";
+	public static final String OVERLAY_FETCHED = "overlay_fetched";
+	public static final String OVERLAY_DECODED = "overlay_decoded";
+	public static final String IMAGE_FETCHED = "image_fetched";
+	public static final String IMAGE_DECODED = "image_decoded";
+	public static final String DATA_READY = "data_ready";
+	public static final String START_ACTIVITY = "start_activity";
+	public static final String FIRST_DRAW = "first_draw";
+	
+	
+	
+	/**
+	 * Phase names in order, indexed by phase
+	 */
+	private static final String[] NAMES = {
+		QUEUED, CONNECTED, FIRST_BYTE, BODY_READ, PARSED,
+		CLOSE_FETCHED, CLOSE_DECODED, OVERLAY_FETCHED, OVERLAY_DECODED, IMAGE_FETCHED, IMAGE_DECODED,
+		DATA_READY, START_ACTIVITY, FIRST_DRAW
+	};
+	
+	
+	
+	/*
+	 * Phases, media phases follow the order of asset indexes, see BlastConfig#getURIs()
+	 */
+	static final int PHASE_QUEUED = 0;
+	static final int PHASE_CONNECTED = 1;
+	static final int PHASE_FIRST_BYTE = 2;
+	static final int PHASE_BODY_READ = 3;
+	static final int PHASE_PARSED = 4;
+	static final int PHASE_MEDIA = 5;
+	static final int PHASE_DATA_READY = 11;
+	static final int PHASE_START_ACTIVITY = 12;
+	static final int PHASE_FIRST_DRAW = 13;
+	
+	
+	
+	/**
+	 * Key of the timeline in the HTTP context, see {@link HttpTransport#execute(org.apache.http.client.methods.HttpUriRequest, BlastTimeline)}
+	 */
+	static final String CONTEXT_ATTRIBUTE = "com.inappblast.timeline";
+	
+	
+	
+	/**
+	 * Value of the phase that is not reached
+	 */
+	private static final long NOT_REACHED = -1;
+	
+	
+	
+	/**
+	 * Time when configuration request was queued
+	 */
+	private final long start;
+	
+	
+	
+	/**
+	 * Time of each phase, or {@link BlastTimeline#NOT_REACHED}
+	 */
+	private final AtomicLongArray times = new AtomicLongArray(NAMES.length);
+	
+	
+	
+	/**
+	 * Constructs timeline, the {@link BlastTimeline#QUEUED} phase is reached at once.
+	 */
+	BlastTimeline(){
+		
+		this.start = SystemClock.elapsedRealtime();
+		
+		for (int i = 0; i < NAMES.length; i++) {
+			this.times.set(i, NOT_REACHED);
+		}
+		
+		this.times.set(PHASE_QUEUED, this.start);
+	}
+	
+	
+	
+	/**
+	 * Records that phase is reached now, if it was not reached before.
+	 * Can be called on any thread.
+	 * @param phase - one of the phase constants
+	 */
+	void mark(int phase){
+		this.times.compareAndSet(phase, NOT_REACHED, SystemClock.elapsedRealtime());
+	}
+	
+	
+	
+	/**
+	 * Records that media file was fetched
+	 * @param index - asset index, see {@link BlastConfig#getURIs()}
+	 */
+	void markFetched(int index){
+		mark(PHASE_MEDIA + index * 2);
+	}
+	
+	
+	
+	/**
+	 * Records that media file was decoded
+	 * @param index - asset index, see {@link BlastConfig#getURIs()}
+	 */
+	void markDecoded(int index){
+		mark(PHASE_MEDIA + index * 2 + 1);
+	}
+	
+	
+	
+	/**
+	 * Returns names of all phases in order
+	 * @return String array
+	 */
+	public String[] getPhaseNames(){
+		return NAMES.clone();
+	}
+	
+	
+	
+	/**
+	 * Returns time when phase was reached
+	 * @param phase - phase name, e.g. {@link BlastTimeline#FIRST_BYTE}
+	 * @return milliseconds since {@link BlastTimeline#QUEUED}, or -1 if phase
+	 * is not reached, e.g. configuration was taken from cache without request
+	 */
+	public long getTime(String phase){
+		
+		for (int i = 0; i < NAMES.length; i++) {
+			if(NAMES[i].equals(phase)) return getTime(i);
+		}
+		
+		return NOT_REACHED;
+	}
+	
+	
+	
+	/**
+	 * Returns time of the phase relative to the start, or -1
+	 */
+	private long getTime(int phase){
+		long time = this.times.get(phase);
+		return time == NOT_REACHED ? NOT_REACHED : time - this.start;
+	}
+	
+	
+	
+	/**
+	 * Returns reached phases as JSON object, phase name to milliseconds
+	 * since {@link BlastTimeline#QUEUED}.
+	 * @return String
+	 */
+	String toJSON(){
+		
+		StringBuilder sb = new StringBuilder(256).append('{');
+		
+		for (int i = 0; i < NAMES.length; i++) {
+			
+			long time = getTime(i);
+			
+			if(time == NOT_REACHED) continue;
+			
+			if(sb.length() > 1) sb.append(',');
+			
+			sb.append('"').append(NAMES[i]).append("\":").append(time);
+		}
+		
+		return sb.append('}').toString();
+	}
+	
+	
+	
+	@Override
+	public String toString() {
+		return "BlastTimeline" + toJSON();
+	}
+
+}
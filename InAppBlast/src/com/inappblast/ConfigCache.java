@@ -0,0 +1,326 @@
+package com.inappblast;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * ConfigCache keeps the last loaded notification configuration
+ * together with its ETag and Last-Modified validators, so configuration
+ * is requested conditionally and <code>304 Not Modified</code> response
+ * reuses already decoded {@link BlastConfig}.
+ * Configuration loaded less than {@link ConfigCache#getTTL()} milliseconds ago
+ * is used without any request, by default it is always revalidated.
+ * Configuration which notification was shown is marked, so stored configuration
+ * does not show the same notification again.
+ * Configuration is persisted in the separate shared preferences file.
+ * @author Maksym Fedyay
+ */
+class ConfigCache {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> ConfigCache";
+	
+	
+	
+	/**
+	 * Name of shared preferences
+	 */
+	private static final String PREF_NAME = "blast_config";
+	
+	
+	
+	/*
+	 * Shared preferences keys
+	 */
+	private static final String SP_URI = "uri";
+	private static final String SP_ETAG = "etag";
+	private static final String SP_LAST_MODIFIED = "last_modified";
+	private static final String SP_FETCHED = "fetched";
+	private static final String SP_BODY = "body";
+	private static final String SP_SHOWN = "shown";
+	
+	
+	
+	/**
+	 * Default time in milliseconds the configuration is used without revalidation,
+	 * configuration is revalidated on every load
+	 */
+	static final long DEFAULT_TTL = 0;
+	
+	
+	
+	/**
+	 * Time in milliseconds the configuration is used without revalidation
+	 */
+	private static volatile long ttl = DEFAULT_TTL;
+	
+	
+	
+	/**
+	 * Shared instance
+	 */
+	private static ConfigCache instance;
+	
+	
+	
+	/**
+	 * Returns shared cache, creates it on the first call.
+	 * The first call reads configuration from disk, so it should not be
+	 * made on the main thread.
+	 * @param context - application context
+	 * @return {@link ConfigCache}
+	 */
+	static synchronized ConfigCache getInstance(Context context){
+		if(instance == null)
+			instance = new ConfigCache(context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE));
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Sets time the configuration is used without revalidation.
+	 * @param ttl - time in milliseconds, 0 to revalidate on every load
+	 */
+	static void setTTL(long ttl){
+		ConfigCache.ttl = Math.max(0, ttl);
+	}
+	
+	
+	
+	/**
+	 * Returns time the configuration is used without revalidation.
+	 * @return time in milliseconds
+	 */
+	static long getTTL(){
+		return ttl;
+	}
+	
+	
+	
+	/**
+	 * Stored configuration
+	 * @author Maksym Fedyay
+	 */
+	static class Entry {
+		
+		final String uri;
+		
+		final String etag;
+		
+		final String lastModified;
+		
+		final BlastConfig config;
+		
+		/* Changed with the cache lock held, read without it */
+		volatile long fetched;
+		
+		/* True if notification of the configuration was shown */
+		volatile boolean shown;
+		
+		Entry(String uri, String etag, String lastModified, BlastConfig config, long fetched, boolean shown){
+			this.uri = uri;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.config = config;
+			this.fetched = fetched;
+			this.shown = shown;
+		}
+		
+		/**
+		 * Returns true if configuration may be used without revalidation
+		 * @return boolean
+		 */
+		boolean isFresh(){
+			long age = System.currentTimeMillis() - this.fetched;
+			return age >= 0 && age < ttl;
+		}
+	}
+	
+	
+	
+	/**
+	 * Storage of the configuration
+	 */
+	private final SharedPreferences pref;
+	
+	
+	
+	/**
+	 * The last configuration or null
+	 */
+	private Entry entry;
+	
+	
+	
+	/**
+	 * Constructs cache and reads stored configuration.
+	 * @param pref - storage of the configuration
+	 */
+	ConfigCache(SharedPreferences pref){
+		this.pref = pref;
+		read();
+	}
+	
+	
+	
+	/**
+	 * Returns stored configuration of the URI, or null if it is not stored.
+	 * @param uri - configuration URI
+	 * @return {@link Entry}
+	 */
+	synchronized Entry get(String uri){
+		
+		if(this.entry == null || !this.entry.uri.equals(uri)) return null;
+		
+		return this.entry;
+	}
+	
+	
+	
+	/**
+	 * Adds validators of stored configuration to the request, so
+	 * server may answer with <code>304 Not Modified</code>.
+	 * @param request - configuration request
+	 * @param entry - stored entry or null
+	 */
+	static void addValidators(HttpGet request, Entry entry){
+		
+		if(entry == null) return;
+		
+		if(entry.etag != null)
+			request.addHeader("If-None-Match", entry.etag);
+		if(entry.lastModified != null)
+			request.addHeader("If-Modified-Since", entry.lastModified);
+	}
+	
+	
+	
+	/**
+	 * Marks stored configuration as revalidated after <code>304 Not Modified</code> response.
+	 * @param entry - stored entry
+	 */
+	synchronized void revalidated(Entry entry){
+		
+		entry.fetched = System.currentTimeMillis();
+		
+		this.pref.edit()
+			.putLong(SP_FETCHED, entry.fetched)
+			.commit();
+	}
+	
+	
+	
+	/**
+	 * Marks configuration as shown, so its notification is not shown again
+	 * while the configuration is served from the cache. Called on the main thread,
+	 * the mark is written in background.
+	 * @param config - configuration which notification is shown
+	 */
+	void shown(BlastConfig config){
+		
+		final Entry entry;
+		
+		synchronized (this) {
+			entry = this.entry;
+		}
+		
+		if(entry == null || entry.config != config || entry.shown) return;
+		
+		entry.shown = true;
+		
+		new SdkTask<Void>() {
+			@Override
+			protected Void doInBackground() {
+				writeShown(entry);
+				return null;
+			}
+		}.execute(SdkExecutor.PRIORITY_LOW);
+	}
+	
+	
+	
+	/**
+	 * Writes shown mark if the entry is still stored
+	 */
+	private synchronized void writeShown(Entry entry){
+		
+		if(entry != this.entry) return;
+		
+		this.pref.edit()
+			.putBoolean(SP_SHOWN, true)
+			.commit();
+	}
+	
+	
+	
+	/**
+	 * Stores configuration loaded with 200 response.
+	 * @param uri - configuration URI
+	 * @param response - 200 response, used for validators
+	 * @param body - response body
+	 * @param config - configuration decoded from the body
+	 * @return stored {@link Entry}
+	 */
+	synchronized Entry put(String uri, HttpResponse response, JSONObject body, BlastConfig config){
+		
+		this.entry = new Entry(uri,
+				MediaCache.getHeader(response, "ETag"),
+				MediaCache.getHeader(response, "Last-Modified"),
+				config, System.currentTimeMillis(), false);
+		
+		this.pref.edit()
+			.putString(SP_URI, this.entry.uri)
+			.putString(SP_ETAG, this.entry.etag)
+			.putString(SP_LAST_MODIFIED, this.entry.lastModified)
+			.putLong(SP_FETCHED, this.entry.fetched)
+			.putString(SP_BODY, body.toString())
+			.putBoolean(SP_SHOWN, false)
+			.commit();
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".put()", "Stored | " + uri + " | " + this.entry.etag + " | " + this.entry.lastModified);
+		
+		return this.entry;
+	}
+	
+	
+	
+	/**
+	 * Reads stored configuration, invalid configuration is removed
+	 */
+	private void read(){
+		
+		String uri = this.pref.getString(SP_URI, null);
+		String body = this.pref.getString(SP_BODY, null);
+		
+		if(uri == null || body == null) return;
+		
+		try {
+			this.entry = new Entry(uri,
+					this.pref.getString(SP_ETAG, null),
+					this.pref.getString(SP_LAST_MODIFIED, null),
+					new BlastConfig(new JSONObject(body)),
+					this.pref.getLong(SP_FETCHED, 0),
+					this.pref.getBoolean(SP_SHOWN, false));
+		} catch (JSONException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".read()", e.getMessage());
+			this.pref.edit().clear().commit();
+		} catch (IllegalArgumentException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".read()", e.getMessage());
+			this.pref.edit().clear().commit();
+		}
+	}
+
+}
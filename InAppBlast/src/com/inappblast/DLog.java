@@ -11,6 +11,8 @@ import static com.inappblast.AppBlast.LL_NO;;
  * Default log level is {@link DLog#LL_NO}.
  * DLog implements and translates only ERROR and INFO logs 
  * to a standard {@link android.util.Log logger}. 
+ * Structured events are always recorded to the {@link TraceBuffer},
+ * use {@link DLog#t(int, long, long)}.
  * @author Maksym Fedyay
  */
 class DLog {
@@ -113,6 +115,19 @@ class DLog {
 	}
 	
 	
+	
+	/**
+	 * Records trace event regardless of the log level.
+	 * Cheap enough to be called on every request.
+	 * @param event - one of {@link TraceBuffer} event codes
+	 * @param arg1 - first argument of the event
+	 * @param arg2 - second argument of the event
+	 */
+	public static void t(int event, long arg1, long arg2){
+		TraceBuffer.record(event, arg1, arg2);
+	}
+	
+	
 
 	
 }
@@ -0,0 +1,107 @@
+package com.inappblast;
+
+import android.content.Context;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+
+/**
+ * DeviceDescriptor describes the device in requests. The values do not change
+ * while the process lives, so they are read once and the <code>_device</code>
+ * object is kept serialized, ready to be spliced into request body.
+ * Reading of the device id makes IPC call, so the descriptor is
+ * created in background while {@link AppBlast} is initialized.
+ * @author Maksym Fedyay
+ */
+class DeviceDescriptor {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> DeviceDescriptor";
+	
+	
+	
+	/**
+	 * Name of the device object in request body
+	 */
+	static final String DEVICE = "_device";
+	
+	
+	
+	/**
+	 * Shared instance
+	 */
+	private static DeviceDescriptor instance;
+	
+	
+	
+	/**
+	 * Returns device descriptor, creates it on the first call.
+	 * @param context - application context
+	 * @return {@link DeviceDescriptor}
+	 */
+	static synchronized DeviceDescriptor getInstance(Context context){
+		if(instance == null)
+			instance = new DeviceDescriptor(context);
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Device id, MAC address of the Wi-Fi adapter
+	 */
+	final String deviceId;
+	
+	
+	
+	/**
+	 * Serialized <code>"_device":{...}</code> member of the request body
+	 */
+	final String member;
+	
+	
+	
+	/**
+	 * Reads device properties.
+	 * @param context - application context
+	 */
+	private DeviceDescriptor(Context context){
+		
+		WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+		WifiInfo info = wifiManager == null ? null : wifiManager.getConnectionInfo();
+		
+		this.deviceId = info == null ? null : info.getMacAddress();
+		
+		StringBuilder sb = new StringBuilder(128);
+		
+		JSONRequest.appendString(sb, DEVICE);
+		sb.append(":{");
+		
+		if(this.deviceId != null){
+			JSONRequest.appendString(sb, "device_id");
+			sb.append(':');
+			JSONRequest.appendString(sb, this.deviceId);
+			sb.append(',');
+		}
+		
+		JSONRequest.appendString(sb, "os_version");
+		sb.append(':');
+		JSONRequest.appendString(sb, String.valueOf(android.os.Build.VERSION.RELEASE));
+		sb.append(',');
+		JSONRequest.appendString(sb, "device_model");
+		sb.append(':');
+		JSONRequest.appendString(sb, String.valueOf(android.os.Build.MANUFACTURER));
+		sb.append(',');
+		JSONRequest.appendString(sb, "platform");
+		sb.append(":\"ANDROID\"}");
+		
+		this.member = sb.toString();
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG, "Initialized | " + this.member);
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.inappblast;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application.ActivityLifecycleCallbacks;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * ForegroundTracker counts started activities of the application
+ * and reports when the last of them is stopped, i.e. when application
+ * goes to background. Activities stopped because of configuration change
+ * are not counted as leaving foreground.
+ * Available since {@link Build.VERSION_CODES#ICE_CREAM_SANDWICH}, the class
+ * must not be loaded on older platforms.
+ * @author Maksym Fedyay
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+class ForegroundTracker implements ActivityLifecycleCallbacks {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> ForegroundTracker";
+	
+	
+	
+	/**
+	 * Listener of the background transition
+	 * @author Maksym Fedyay
+	 */
+	interface Listener {
+		
+		/**
+		 * Called on the main thread when the last started activity is stopped
+		 */
+		void onBackground();
+	}
+	
+	
+	
+	/**
+	 * Background transition listener
+	 */
+	private final Listener listener;
+	
+	
+	
+	/**
+	 * Number of started activities
+	 */
+	private int started;
+	
+	
+	
+	/**
+	 * Constructs tracker.
+	 * @param listener - {@link Listener}
+	 */
+	ForegroundTracker(Listener listener){
+		this.listener = listener;
+	}
+	
+	
+	
+	@Override
+	public void onActivityStarted(Activity activity) {
+		this.started++;
+	}
+	
+	
+	
+	@Override
+	public void onActivityStopped(Activity activity) {
+		
+		/* Activity was started before tracker registration */
+		if(this.started == 0) return;
+		
+		if(--this.started > 0 || activity.isChangingConfigurations()) return;
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".onActivityStopped()", "Last activity stopped | " + activity);
+		
+		this.listener.onBackground();
+	}
+	
+	
+	
+	@Override
+	public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+	
+	
+	
+	@Override
+	public void onActivityResumed(Activity activity) {}
+	
+	
+	
+	@Override
+	public void onActivityPaused(Activity activity) {}
+	
+	
+	
+	@Override
+	public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+	
+	
+	
+	@Override
+	public void onActivityDestroyed(Activity activity) {}
+
+}
@@ -0,0 +1,633 @@
+package com.inappblast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultRedirectHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HttpTransport is the single HTTP client shared by all library requests.
+ * It keeps a bounded pool of keep-alive connections per host, so
+ * configuration, statistic and media requests reuse already opened
+ * connections instead of opening a new one for each call.
+ * Responses are requested with <code>Accept-Encoding: gzip</code> and 
+ * compressed content is decompressed while it is read. Request bodies
+ * larger than {@link HttpTransport#GZIP_THRESHOLD} are compressed 
+ * if it is turned on by {@link HttpTransport#setCompressRequests(boolean)}.
+ * Replace the shared instance with {@link HttpTransport#setInstance(HttpTransport)}
+ * in order to route library traffic thru a different transport, host application
+ * does it with {@link AppBlast#setConnectionManager(ClientConnectionManager)}.
+ * @author Maksym Fedyay
+ */
+class HttpTransport {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> HttpTransport";
+	
+	
+	
+	/**
+	 * Time in milliseconds to establish connection
+	 */
+	static final int CONNECT_TIMEOUT = 10000;
+	
+	
+	
+	/**
+	 * Time in milliseconds to wait for the data (socket timeout)
+	 */
+	static final int READ_TIMEOUT = 20000;
+	
+	
+	
+	/**
+	 * Time in milliseconds to wait for a free connection from the pool
+	 */
+	static final int POOL_TIMEOUT = 10000;
+	
+	
+	
+	/**
+	 * Maximum number of pooled connections per host
+	 */
+	static final int MAX_CONNECTIONS_PER_HOST = 3;
+	
+	
+	
+	/**
+	 * Maximum number of pooled connections for all hosts
+	 */
+	static final int MAX_CONNECTIONS_TOTAL = 8;
+	
+	
+	
+	/**
+	 * Time in milliseconds an idle connection is kept alive
+	 * if server does not say otherwise
+	 */
+	static final long KEEP_ALIVE = 30000;
+	
+	
+	
+	/**
+	 * Minimum size in bytes of request body that is compressed
+	 */
+	static final int GZIP_THRESHOLD = 1024;
+	
+	
+	
+	/**
+	 * Maximum size in bytes of unread response body that is consumed
+	 * to reuse the connection, longer bodies close the connection
+	 */
+	static final int DRAIN_LIMIT = 8 * 1024;
+	
+	
+	
+	/**
+	 * True if request bodies should be compressed,
+	 * server must accept <code>Content-Encoding: gzip</code> requests.
+	 */
+	private static volatile boolean compressRequests;
+	
+	
+	
+	/**
+	 * Shared instance
+	 */
+	private static HttpTransport instance;
+	
+	
+	
+	/**
+	 * Returns shared transport, creates it on the first call.
+	 * @return {@link HttpTransport}
+	 */
+	static synchronized HttpTransport getInstance(){
+		if(instance == null)
+			instance = new HttpTransport();
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Returns shared transport if it is already created, does not create it.
+	 * @return {@link HttpTransport} or null
+	 */
+	static synchronized HttpTransport peekInstance(){
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Replaces shared transport. Previous transport will be shut down.
+	 * @param transport - new transport, if null passed then default
+	 * transport will be created on the next {@link HttpTransport#getInstance()} call.
+	 */
+	static synchronized void setInstance(HttpTransport transport){
+		if(instance != null && instance != transport)
+			instance.shutdown();
+		instance = transport;
+	}
+	
+	
+	
+	/**
+	 * Pooled connection manager
+	 */
+	private final ClientConnectionManager manager;
+	
+	
+	
+	/**
+	 * True if the connection manager is created by this transport
+	 * and should be shut down with it
+	 */
+	private final boolean ownManager;
+	
+	
+	
+	/**
+	 * Client that executes requests thru the pooled connections
+	 */
+	private final DefaultHttpClient client;
+	
+	
+	
+	/*
+	 * Byte counters. Sent bytes are counted for the bodies created by
+	 * {@link HttpTransport#createEntity(String)}, received bytes are counted 
+	 * for the response content that was read.
+	 */
+	private final AtomicLong sentBytes = new AtomicLong();
+	private final AtomicLong sentWireBytes = new AtomicLong();
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final AtomicLong receivedWireBytes = new AtomicLong();
+	
+	
+	
+	/**
+	 * Constructs transport with the own pooled connection manager.
+	 */
+	HttpTransport(){
+		this(null);
+	}
+	
+	
+	
+	/**
+	 * Constructs transport with the given connection manager.
+	 * Manager of the host application is not shut down by the transport.
+	 * @param manager - connection manager, or null to create own pooled manager
+	 */
+	HttpTransport(ClientConnectionManager manager){
+		
+		HttpParams params = new BasicHttpParams();
+		
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+		
+		HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		
+		ConnManagerParams.setTimeout(params, POOL_TIMEOUT);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+		ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS_TOTAL);
+		
+		if(manager == null){
+			
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+			
+			manager = new ThreadSafeClientConnManager(params, registry);
+			this.ownManager = true;
+			
+		} else {
+			this.ownManager = false;
+		}
+		
+		this.manager = manager;
+		this.client = new DefaultHttpClient(this.manager, params);
+		this.client.setRedirectHandler(new DefaultRedirectHandler());
+		this.client.setKeepAliveStrategy(new KeepAliveStrategy());
+		
+		this.client.addRequestInterceptor(new HttpRequestInterceptor() {
+			@Override
+			public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+				if(!request.containsHeader("Accept-Encoding"))
+					request.addHeader("Accept-Encoding", "gzip");
+				/* Request is processed when connection is already open */
+				mark(context, BlastTimeline.PHASE_CONNECTED);
+			}
+		});
+		
+		this.client.addResponseInterceptor(new HttpResponseInterceptor() {
+			@Override
+			public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+				/* Response head is received */
+				mark(context, BlastTimeline.PHASE_FIRST_BYTE);
+			}
+		});
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG, "Initialized | " + this.toString());
+	}
+	
+	
+	
+	/**
+	 * Executes request thru the pooled connection.
+	 * Caller must consume or {@link HttpTransport#release(HttpUriRequest, HttpResponse) release}
+	 * the response entity, otherwise connection will not return to the pool.
+	 * @param request - request to execute
+	 * @return {@link HttpResponse}
+	 * @throws IOException
+	 */
+	HttpResponse execute(HttpUriRequest request) throws IOException{
+		this.manager.closeExpiredConnections();
+		return decode(this.client.execute(request));
+	}
+	
+	
+	
+	/**
+	 * Executes request thru the pooled connection and records
+	 * {@link BlastTimeline#PHASE_CONNECTED} and {@link BlastTimeline#PHASE_FIRST_BYTE} phases.
+	 * @param request - request to execute
+	 * @param timeline - timeline of the notification load
+	 * @return {@link HttpResponse}
+	 * @throws IOException
+	 * @see HttpTransport#execute(HttpUriRequest)
+	 */
+	HttpResponse execute(HttpUriRequest request, BlastTimeline timeline) throws IOException{
+		
+		HttpContext context = new BasicHttpContext();
+		context.setAttribute(BlastTimeline.CONTEXT_ATTRIBUTE, timeline);
+		
+		this.manager.closeExpiredConnections();
+		return decode(this.client.execute(request, context));
+	}
+	
+	
+	
+	/**
+	 * Wraps response entity into {@link DecodingEntity}. It is done after
+	 * the client wrapped the entity into the managed one, so 
+	 * {@link HttpTransport#release(HttpUriRequest, HttpResponse) release} sees
+	 * how much of the body was read.
+	 */
+	private HttpResponse decode(HttpResponse response){
+		
+		HttpEntity entity = response.getEntity();
+		
+		if(entity != null)
+			response.setEntity(new DecodingEntity(entity));
+		
+		return response;
+	}
+	
+	
+	
+	/**
+	 * Records phase of the timeline that is attached to the request context, if any
+	 */
+	private static void mark(HttpContext context, int phase){
+		
+		Object timeline = context.getAttribute(BlastTimeline.CONTEXT_ATTRIBUTE);
+		
+		if(timeline != null)
+			((BlastTimeline) timeline).mark(phase);
+	}
+	
+	
+	
+	/**
+	 * Turns compression of request bodies on or off.
+	 * @param compress - true to compress bodies larger than {@link HttpTransport#GZIP_THRESHOLD}
+	 */
+	static void setCompressRequests(boolean compress){
+		compressRequests = compress;
+	}
+	
+	
+	
+	/**
+	 * Creates UTF-8 request body from JSON string, compressed if it is turned on
+	 * and body is large enough.
+	 * @param body - request body
+	 * @return {@link HttpEntity}
+	 * @throws UnsupportedEncodingException
+	 */
+	HttpEntity createEntity(String body) throws UnsupportedEncodingException{
+		return createEntity(body.getBytes(HTTP.UTF_8));
+	}
+	
+	
+	
+	/**
+	 * Creates request body from encoded content, compressed if it is turned on
+	 * and body is large enough.
+	 * @param content - encoded request body
+	 * @return {@link HttpEntity}
+	 */
+	HttpEntity createEntity(byte[] content){
+		
+		ByteArrayEntity entity = new ByteArrayEntity(content);
+		
+		long length = content.length;
+		
+		this.sentBytes.addAndGet(length);
+		
+		if(!compressRequests || length < GZIP_THRESHOLD){
+			this.sentWireBytes.addAndGet(length);
+			return entity;
+		}
+		
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream((int) length / 4);
+			GZIPOutputStream gzip = new GZIPOutputStream(bos);
+			gzip.write(content);
+			gzip.close();
+			
+			ByteArrayEntity compressed = new ByteArrayEntity(bos.toByteArray());
+			compressed.setContentEncoding("gzip");
+			
+			this.sentWireBytes.addAndGet(compressed.getContentLength());
+			
+			return compressed;
+			
+		} catch (IOException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".createEntity()", e.getMessage());
+			this.sentWireBytes.addAndGet(length);
+			return entity;
+		}
+	}
+	
+	
+	
+	/**
+	 * Releases connection of the response. The rest of response entity is consumed,
+	 * so the connection can be reused by the next request, if the body was read 
+	 * to the end or the rest is short. Otherwise the request is aborted and the 
+	 * connection is closed, e.g. for the body left unread after the error envelope
+	 * or because it is too large.
+	 * @param request - request of the response
+	 * @param response - response to release, may be null
+	 */
+	static void release(HttpUriRequest request, HttpResponse response){
+		
+		if(response == null) return;
+		
+		HttpEntity entity = response.getEntity();
+		
+		if(entity == null) return;
+		
+		if(entity instanceof DecodingEntity && !((DecodingEntity) entity).isDrainCheap()){
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".release()", "Body left unread, connection closed | " + request.getURI());
+			request.abort();
+			return;
+		}
+		
+		try {
+			entity.consumeContent();
+		} catch (IOException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".release()", e.getMessage());
+		}
+	}
+	
+	
+	
+	/**
+	 * Closes all pooled connections, if the connection manager is own.
+	 */
+	void shutdown(){
+		if(this.ownManager)
+			this.manager.shutdown();
+	}
+	
+	
+	
+	/**
+	 * Returns number of request content bytes, before compression
+	 * @return count
+	 */
+	long getSentBytes(){
+		return this.sentBytes.get();
+	}
+	
+	
+	
+	/**
+	 * Returns number of request bytes sent over the network
+	 * @return count
+	 */
+	long getSentWireBytes(){
+		return this.sentWireBytes.get();
+	}
+	
+	
+	
+	/**
+	 * Returns number of response content bytes, after decompression
+	 * @return count
+	 */
+	long getReceivedBytes(){
+		return this.receivedBytes.get();
+	}
+	
+	
+	
+	/**
+	 * Returns number of response bytes received over the network
+	 * @return count
+	 */
+	long getReceivedWireBytes(){
+		return this.receivedWireBytes.get();
+	}
+	
+	
+	
+	@Override
+	public String toString() {
+		return "HttpTransport[sent=" + this.sentBytes + "/" + this.sentWireBytes 
+				+ " bytes, received=" + this.receivedBytes + "/" + this.receivedWireBytes + " bytes (content/wire)]";
+	}
+	
+	
+	
+	/**
+	 * Decompresses gzip content while it is read and counts received bytes.
+	 * @author Maksym Fedyay
+	 */
+	private class DecodingEntity extends HttpEntityWrapper{
+		
+		private final boolean gzip;
+		
+		/* Bytes read from the wire, for this entity only */
+		private final AtomicLong wireRead = new AtomicLong();
+		
+		/* True when the wire stream reached its end */
+		private volatile boolean eof;
+		
+		DecodingEntity(HttpEntity entity){
+			super(entity);
+			Header encoding = entity.getContentEncoding();
+			this.gzip = encoding != null && "gzip".equalsIgnoreCase(encoding.getValue());
+		}
+		
+		/**
+		 * Returns true if the rest of the body is known to be no longer
+		 * than {@link HttpTransport#DRAIN_LIMIT}
+		 */
+		boolean isDrainCheap(){
+			
+			if(this.eof) return true;
+			
+			long length = this.wrappedEntity.getContentLength();
+			
+			return length >= 0 && length - this.wireRead.get() <= DRAIN_LIMIT;
+		}
+		
+		@Override
+		public InputStream getContent() throws IOException {
+			
+			InputStream wire = new CountingInputStream(
+					new CountingInputStream(super.getContent(), receivedWireBytes), this.wireRead){
+				@Override
+				protected void onEnd() {
+					DecodingEntity.this.eof = true;
+				}
+			};
+			
+			if(!this.gzip)
+				return new CountingInputStream(wire, receivedBytes);
+			
+			return new CountingInputStream(new GZIPInputStream(wire), receivedBytes);
+		}
+		
+		@Override
+		public Header getContentEncoding() {
+			return this.gzip ? null : super.getContentEncoding();
+		}
+		
+		@Override
+		public long getContentLength() {
+			return this.gzip ? -1 : super.getContentLength();
+		}
+	}
+	
+	
+	
+	/**
+	 * Adds number of read bytes to the counter
+	 * @author Maksym Fedyay
+	 */
+	private static class CountingInputStream extends FilterInputStream{
+		
+		private final AtomicLong counter;
+		
+		CountingInputStream(InputStream is, AtomicLong counter){
+			super(is);
+			this.counter = counter;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1) this.counter.incrementAndGet();
+			else onEnd();
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0) this.counter.addAndGet(read);
+			else if(read == -1) onEnd();
+			return read;
+		}
+		
+		/* Called when the end of stream is reached */
+		protected void onEnd(){}
+	}
+	
+	
+	
+	/**
+	 * Keeps connection alive for the time the server asked in
+	 * <code>Keep-Alive: timeout=</code> header, or for {@link HttpTransport#KEEP_ALIVE}.
+	 * @author Maksym Fedyay
+	 */
+	private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy{
+		
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			
+			HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+			
+			while(it.hasNext()){
+				HeaderElement he = it.nextElement();
+				if("timeout".equalsIgnoreCase(he.getName()) && he.getValue() != null){
+					try {
+						return Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(he.getValue())), KEEP_ALIVE);
+					} catch (NumberFormatException e) {
+						break;
+					}
+				}
+			}
+			
+			return KEEP_ALIVE;
+		}
+	}
+
+}
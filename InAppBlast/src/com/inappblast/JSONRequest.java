@@ -1,27 +1,39 @@
 package com.inappblast;
 
-import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.apache.http.entity.StringEntity;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import android.content.Context;
-import android.net.wifi.WifiManager;
 import android.text.TextUtils;
 
+import com.inappblast.MarkBatcher.Mark;
+
 
 /**
- * 
+ * Writes JSON request body straight into the character buffer,
+ * without building {@link org.json.JSONObject} tree. The buffer is reused
+ * by the next request made on the same thread.
+ * Members are written in the order the setters are called.
  * @author Maksym Fedyay
  */
 class JSONRequest{
 	
 	private static final String LOG_TAG = ">> JSONUserId";
 	
-	private JSONObject o;
+	/**
+	 * Buffer of the finished request of the thread, reused by the next one
+	 */
+	private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>();
+	
+	/**
+	 * Initial size of the new buffer
+	 */
+	private static final int BUFFER_SIZE = 512;
+	
+	/**
+	 * Body being written
+	 */
+	private StringBuilder sb;
 	
 	
 	@SuppressWarnings("unused")
@@ -37,18 +49,25 @@ class JSONRequest{
 		if(TextUtils.isEmpty(userId))
 			throw new IllegalArgumentException("Invalid argument passed to JSONRequest constructor");
 		
-		this.o = new JSONObject();
+		/* Take the buffer, so nested request on the same thread gets its own */
+		this.sb = buffers.get();
 		
-		try {
-			this.o.putOpt("_id", userId);
-			this.o.putOpt("user_id", userId);
-			// TODO: set the current time in 2012-04-23T18:25:43.511 format
-		} catch (JSONException e) {
-			DLog.e(LOG_TAG, e.getMessage());
+		if(this.sb == null){
+			this.sb = new StringBuilder(BUFFER_SIZE);
+		} else {
+			buffers.set(null);
+			this.sb.setLength(0);
 		}
+		
+		this.sb.append('{');
+		appendString(this.sb, "_id");
+		this.sb.append(':');
+		appendString(this.sb, userId);
+		put("user_id", userId);
+		// TODO: set the current time in 2012-04-23T18:25:43.511 format
 	}
 	
-
+	
 	
 	/**
 	 * Adds device id at the top level with the 
@@ -56,38 +75,20 @@ class JSONRequest{
 	 * @return
 	 */
 	public JSONRequest setDeviceId(){
-		WifiManager wifiManager = (WifiManager) AppBlast.getSharedInstance().getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-		String mac_as_device_id = wifiManager.getConnectionInfo().getMacAddress();
-		try {
-			this.o.putOpt("device_id", mac_as_device_id);
-		} catch (JSONException e) {
-			DLog.e(LOG_TAG, e.getMessage());
-		}
+		put("device_id", DeviceDescriptor.getInstance(AppBlast.getSharedInstance().getApplicationContext()).deviceId);
 		return this;
 	}
 	
 	
 	
 	/**
-	 * 
+	 * Adds <code>_device</code> object, see {@link DeviceDescriptor}.
+	 * The object is serialized once per process and copied into the body.
 	 * @return
 	 */
 	public JSONRequest setDeviceProperties(){
-		WifiManager wifiManager = (WifiManager) AppBlast.getSharedInstance().getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-		String mac_as_device_id = wifiManager.getConnectionInfo().getMacAddress();
-		String device_model = android.os.Build.MANUFACTURER;
-		String os_version = android.os.Build.VERSION.RELEASE;
-		String platform = "ANDROID";
-		JSONObject device = new JSONObject();
-		try {
-			device.putOpt("device_id", mac_as_device_id);
-			device.putOpt("os_version", os_version);
-			device.putOpt("device_model", device_model);
-			device.putOpt("platform", platform);
-			this.o.putOpt("_device", device);
-		} catch (JSONException e) {
-			e.printStackTrace();
-		}
+		String member = DeviceDescriptor.getInstance(AppBlast.getSharedInstance().getApplicationContext()).member;
+		this.sb.append(',').append(member);
 		return this;
 	}
 	
@@ -95,24 +96,25 @@ class JSONRequest{
 	
 	
 	/**
-	 * 
-	 * @param params
-	 * @return
+	 * Adds user properties. Properties named <code>_id</code> or <code>user_id</code>
+	 * are skipped, so they can't replace the user id of the request.
+	 * @param params - user properties
+	 * @return this request
 	 */
 	public JSONRequest setUserProperties(Map<String, String> params){
 		
-		if(this.o == null) return null;
-		
 		for(Entry<String, String> entry : params.entrySet()){
 			
 			String key = entry.getKey();
-			String value = entry.getValue();
 			
-			try {
-				this.o.putOpt(key, value);
-			} catch (JSONException e) {
-				DLog.e(LOG_TAG, e.getMessage());
+			/* Property can't replace user id */
+			if(key == null || "_id".equals(key) || "user_id".equals(key)){
+				if(DLog.e())
+					DLog.e(LOG_TAG, "Invalid property name " + key);
+				continue;
 			}
+			
+			put(key, entry.getValue());
 		}
 		
 		return this;
@@ -130,53 +132,164 @@ class JSONRequest{
 	 */
 	public JSONRequest setMarkData(long delta1, long delta2, int action, String notificationId){
 		
-		try {
-			o.putOpt("notification_id", notificationId);
-			o.putOpt("delta1", delta1);
-			o.putOpt("delta2", delta2);
-			o.putOpt("action", action);
-		} catch (JSONException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
+		put("notification_id", notificationId);
+		put("delta1", delta1);
+		put("delta2", delta2);
+		put("action", action);
+		
+		return this;
+	}
+	
+	
+	
+	
+	/**
+	 * Adds batch of notification statistic marks.
+	 * Single mark is added the same way as {@link JSONRequest#setMarkData(long, long, int, String)} does,
+	 * several marks are added as <code>marks</code> array.
+	 * @param marks - marks to add
+	 * @return
+	 */
+	public JSONRequest setMarks(List<Mark> marks){
+		
+		if(marks.size() == 1){
+			Mark mark = marks.get(0);
+			setMarkData(mark.delta1, mark.delta2, mark.action, mark.notificationId);
+			appendTimeline(mark);
+			return this;
+		}
+		
+		this.sb.append(',');
+		appendString(this.sb, "marks");
+		this.sb.append(":[");
+		
+		for (int i = 0; i < marks.size(); i++) {
+			
+			Mark mark = marks.get(i);
+			
+			if(i > 0) this.sb.append(',');
+			
+			this.sb.append('{');
+			appendString(this.sb, "notification_id");
+			this.sb.append(':');
+			appendString(this.sb, mark.notificationId);
+			this.sb.append(",\"delta1\":").append(mark.delta1)
+				.append(",\"delta2\":").append(mark.delta2)
+				.append(",\"action\":").append(mark.action);
+			appendTimeline(mark);
+			this.sb.append('}');
 		}
 		
+		this.sb.append(']');
+		
 		return this;
 	}
 	
 	
 	
+	/**
+	 * Appends <code>timeline</code> member of the mark, if mark has timeline
+	 */
+	private void appendTimeline(Mark mark){
+		if(mark.timeline != null)
+			this.sb.append(",\"timeline\":").append(mark.timeline);
+	}
+	
+	
+	
 	
 	/**
-	 * Creates {@link StringEntity} that is represent JSONObject
-	 * @return {@link StringEntity} or null if error was occurred
-	 * during StringEntity creation.
+	 * Returns request body. The buffer is released for 
+	 * the next request, so no setters should be called after this call.
+	 * @return String
 	 */
-	public StringEntity getEntityString(){
+	public String getBody(){
 		
-		if(this.o == null) return null;
+		this.sb.append('}');
 		
-		StringEntity result = null;
+		String body = this.sb.toString();
 		
+		if(this.sb.capacity() <= BUFFER_SIZE * 8)
+			buffers.set(this.sb);
+		this.sb = null;
 		
 		if(DLog.i())
-			try {
-				DLog.i(LOG_TAG, o.toString(3));
-			} catch (JSONException e1) {
-				if(DLog.e())
-					DLog.e(LOG_TAG, e1.getMessage());
-			}
+			DLog.i(LOG_TAG, body);
 		
-		try {
-			result = new StringEntity(this.o.toString());
-		} catch (UnsupportedEncodingException e) {
-			if(DLog.e())
-				DLog.e(LOG_TAG, e.getMessage());
-		} 
+		return body;
+	}
+	
+	
+	
+	/**
+	 * Writes string member, null value is skipped
+	 */
+	private void put(String key, String value){
 		
-		return result;
+		if(value == null) return;
 		
+		this.sb.append(',');
+		appendString(this.sb, key);
+		this.sb.append(':');
+		appendString(this.sb, value);
+	}
+	
+	
+	
+	/**
+	 * Writes number member
+	 */
+	private void put(String key, long value){
+		this.sb.append(',');
+		appendString(this.sb, key);
+		this.sb.append(':').append(value);
 	}
 	
 	
 	
+	/**
+	 * Writes quoted and escaped JSON string
+	 * @param sb - destination
+	 * @param s - string to write
+	 */
+	static void appendString(StringBuilder sb, String s){
+		
+		sb.append('"');
+		
+		int length = s.length();
+		int start = 0;
+		
+		for (int i = 0; i < length; i++) {
+			
+			char c = s.charAt(i);
+			
+			if(c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) continue;
+			
+			/* Copy run of plain characters at once */
+			sb.append(s, start, i);
+			start = i + 1;
+			
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\b': sb.append("\\b"); break;
+			case '\f': sb.append("\\f"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				sb.append("\\u");
+				String hex = Integer.toHexString(c);
+				for (int j = hex.length(); j < 4; j++) sb.append('0');
+				sb.append(hex);
+			}
+		}
+		
+		sb.append(s, start, length);
+		
+		sb.append('"');
+	}
+
+
+
 }
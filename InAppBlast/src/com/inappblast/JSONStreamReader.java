@@ -0,0 +1,393 @@
+package com.inappblast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * JSONStreamReader parses JSON response straight from the response stream
+ * into {@link JSONObject}, without reading the whole body into a String first.
+ * Body size is limited, parsing fails as soon as the limit is exceeded.
+ * Parsing of the top level object can be stopped early when the error
+ * field is found, the rest of the body is not read in that case.
+ * @author Maksym Fedyay
+ */
+class JSONStreamReader {
+	
+	
+	
+	/**
+	 * Default maximum size of response body in bytes
+	 */
+	static final int MAX_BODY_SIZE = 256 * 1024;
+	
+	
+	
+	/**
+	 * Source of characters
+	 */
+	private final Reader reader;
+	
+	
+	
+	/**
+	 * Read buffer
+	 */
+	private final char[] buffer = new char[2048];
+	
+	
+	
+	/**
+	 * Position of the next char in the buffer
+	 */
+	private int pos;
+	
+	
+	
+	/**
+	 * Number of chars in the buffer
+	 */
+	private int limit;
+	
+	
+	
+	/**
+	 * Reusable builder for strings and numbers
+	 */
+	private final StringBuilder sb = new StringBuilder();
+	
+	
+	
+	/**
+	 * Constructs reader of UTF-8 stream.
+	 * @param is - response stream
+	 * @param maxSize - maximum number of bytes that may be read from stream
+	 * @throws IOException
+	 */
+	JSONStreamReader(InputStream is, long maxSize) throws IOException{
+		this.reader = new InputStreamReader(new LimitedInputStream(is, maxSize), "UTF-8");
+	}
+	
+	
+	
+	/**
+	 * Reads top level JSON object.
+	 * If <code>abortKey</code> is found at the top level and its value is not null,
+	 * parsing is stopped and object with only that key is returned.
+	 * @param abortKey - key of the error field, may be null
+	 * @return {@link JSONObject}
+	 * @throws IOException if stream can't be read or body is too large
+	 * @throws JSONException if body is not a valid JSON object
+	 */
+	JSONObject readObject(String abortKey) throws IOException, JSONException{
+		
+		if(nextClean() != '{')
+			throw syntaxError("Expected '{'");
+		
+		JSONObject o = new JSONObject();
+		
+		int first = nextClean();
+		if(first == '}') return o;
+		if(first == -1) throw syntaxError("Unterminated object");
+		this.pos--;
+		
+		while(true){
+			
+			if(nextClean() != '"')
+				throw syntaxError("Expected name");
+			
+			String key = readString();
+			
+			if(nextClean() != ':')
+				throw syntaxError("Expected ':'");
+			
+			Object value = readValue();
+			
+			if(abortKey != null && abortKey.equals(key) && value != JSONObject.NULL){
+				JSONObject error = new JSONObject();
+				error.put(key, value);
+				return error;
+			}
+			
+			o.put(key, value);
+			
+			int c = nextClean();
+			
+			if(c == '}') return o;
+			if(c != ',') throw syntaxError("Expected ',' or '}'");
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads any JSON value
+	 */
+	private Object readValue() throws IOException, JSONException{
+		
+		int c = nextClean();
+		
+		switch (c) {
+		case '{':
+			this.pos--;
+			return readObject(null);
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			expect("rue");
+			return Boolean.TRUE;
+		case 'f':
+			expect("alse");
+			return Boolean.FALSE;
+		case 'n':
+			expect("ull");
+			return JSONObject.NULL;
+		default:
+			if(c == '-' || (c >= '0' && c <= '9')){
+				this.pos--;
+				return readNumber();
+			}
+			if(c == -1)
+				throw syntaxError("Unexpected end");
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads array, opening bracket is already consumed
+	 */
+	private JSONArray readArray() throws IOException, JSONException{
+		
+		JSONArray array = new JSONArray();
+		
+		int first = nextClean();
+		if(first == ']') return array;
+		if(first == -1) throw syntaxError("Unterminated array");
+		this.pos--;
+		
+		while(true){
+			
+			array.put(readValue());
+			
+			int c = nextClean();
+			
+			if(c == ']') return array;
+			if(c != ',') throw syntaxError("Expected ',' or ']'");
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads string, opening quote is already consumed
+	 */
+	private String readString() throws IOException, JSONException{
+		
+		this.sb.setLength(0);
+		
+		while(true){
+			
+			/* Copy run of plain characters at once */
+			int start = this.pos;
+			while(this.pos < this.limit){
+				char c = this.buffer[this.pos];
+				if(c == '"' || c == '\\') break;
+				this.pos++;
+			}
+			this.sb.append(this.buffer, start, this.pos - start);
+			
+			int c = next();
+			
+			if(c == '"') return this.sb.toString();
+			
+			if(c == '\\'){
+				this.sb.append(readEscape());
+			} else if(c == -1){
+				throw syntaxError("Unterminated string");
+			} else {
+				/* Buffer was refilled */
+				this.pos--;
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads escape sequence, backslash is already consumed
+	 */
+	private char readEscape() throws IOException, JSONException{
+		
+		int c = next();
+		
+		switch (c) {
+		case 'b': return '\b';
+		case 't': return '\t';
+		case 'n': return '\n';
+		case 'f': return '\f';
+		case 'r': return '\r';
+		case '"':
+		case '\\':
+		case '/':
+			return (char) c;
+		case 'u':
+			int code = 0;
+			for(int i = 0; i < 4; i++){
+				int d = Character.digit(next(), 16);
+				if(d < 0) throw syntaxError("Invalid escape sequence");
+				code = (code << 4) | d;
+			}
+			return (char) code;
+		default:
+			throw syntaxError("Invalid escape sequence");
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads number as {@link Long} or {@link Double}
+	 */
+	private Object readNumber() throws IOException, JSONException{
+		
+		this.sb.setLength(0);
+		
+		boolean decimal = false;
+		
+		while(true){
+			
+			int c = next();
+			
+			if((c >= '0' && c <= '9') || c == '-' || c == '+'){
+				this.sb.append((char) c);
+			} else if(c == '.' || c == 'e' || c == 'E'){
+				decimal = true;
+				this.sb.append((char) c);
+			} else {
+				if(c != -1) this.pos--;
+				break;
+			}
+		}
+		
+		String number = this.sb.toString();
+		
+		try {
+			if(!decimal){
+				try {
+					return Long.valueOf(number);
+				} catch (NumberFormatException e) {
+					/* Too large for long */
+				}
+			}
+			return Double.valueOf(number);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Invalid number " + number);
+		}
+	}
+	
+	
+	
+	/**
+	 * Consumes expected literal rest
+	 */
+	private void expect(String rest) throws IOException, JSONException{
+		for(int i = 0; i < rest.length(); i++){
+			if(next() != rest.charAt(i))
+				throw syntaxError("Invalid literal");
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns next char that is not a whitespace, or -1 at the end of stream
+	 */
+	private int nextClean() throws IOException{
+		while(true){
+			int c = next();
+			if(c != ' ' && c != '\t' && c != '\n' && c != '\r') return c;
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns next char, or -1 at the end of stream
+	 */
+	private int next() throws IOException{
+		
+		if(this.pos == this.limit){
+			
+			int read = this.reader.read(this.buffer, 0, this.buffer.length);
+			
+			if(read <= 0) return -1;
+			
+			this.pos = 0;
+			this.limit = read;
+		}
+		
+		return this.buffer[this.pos++];
+	}
+	
+	
+	
+	/**
+	 * Creates {@link JSONException} with the message
+	 */
+	private JSONException syntaxError(String message){
+		return new JSONException(message + " in response body");
+	}
+	
+	
+	
+	/**
+	 * Fails reading when more than allowed number of bytes is read
+	 * @author Maksym Fedyay
+	 */
+	static class LimitedInputStream extends InputStream{
+		
+		private final InputStream is;
+		
+		private long remaining;
+		
+		LimitedInputStream(InputStream is, long maxSize){
+			this.is = is;
+			this.remaining = maxSize;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = this.is.read();
+			if(b != -1) count(1);
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = this.is.read(b, off, len);
+			if(read > 0) count(read);
+			return read;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.is.close();
+		}
+		
+		private void count(int read) throws IOException{
+			this.remaining -= read;
+			if(this.remaining < 0)
+				throw new IOException("Response body exceeds allowed size");
+		}
+	}
+
+}
@@ -0,0 +1,217 @@
+package com.inappblast;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * MarkBatcher collects notification statistic marks and uploads them
+ * with one request. Queue is flushed when it reaches {@link MarkBatcher#MAX_BATCH}
+ * marks, when the oldest mark waits for {@link MarkBatcher#MAX_AGE} milliseconds,
+ * or when application goes to background. Uploaded batches are kept
+ * in the {@link RequestJournal} until the server accepts them.
+ * All methods should be called on the main thread.
+ * @author Maksym Fedyay
+ */
+class MarkBatcher {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> MarkBatcher";
+	
+	
+	
+	/**
+	 * Number of marks that triggers upload
+	 */
+	static final int MAX_BATCH = 20;
+	
+	
+	
+	/**
+	 * Time in milliseconds the oldest mark may wait for upload
+	 */
+	static final long MAX_AGE = 60 * 1000;
+	
+	
+	
+	/**
+	 * Maximum number of marks kept in the queue,
+	 * the oldest marks are dropped when it is exceeded
+	 */
+	static final int MAX_QUEUE = 200;
+	
+	
+	
+	/**
+	 * Notification statistic mark
+	 * @author Maksym Fedyay
+	 */
+	static class Mark {
+		
+		final String notificationId;
+		
+		final long delta1;
+		
+		final long delta2;
+		
+		final int action;
+		
+		/* JSON object of the BlastTimeline, or null */
+		final String timeline;
+		
+		Mark(String notificationId, long delta1, long delta2, int action, String timeline){
+			this.notificationId = notificationId;
+			this.delta1 = delta1;
+			this.delta2 = delta2;
+			this.action = action;
+			this.timeline = timeline;
+		}
+	}
+	
+	
+	
+	/**
+	 * Callback that uploads marks
+	 * @author Maksym Fedyay
+	 */
+	interface Uploader {
+		
+		/**
+		 * Uploads marks.
+		 * @param marks - marks to upload
+		 * @return false if marks can't be uploaded now and should stay in the queue
+		 */
+		boolean upload(List<Mark> marks);
+	}
+	
+	
+	
+	/**
+	 * Queued marks, the oldest is the first
+	 */
+	private final LinkedList<Mark> queue = new LinkedList<Mark>();
+	
+	
+	
+	/**
+	 * Time when the oldest queued mark was added
+	 */
+	private long oldest;
+	
+	
+	
+	/**
+	 * Uploader of the marks
+	 */
+	private final Uploader uploader;
+	
+	
+	
+	/**
+	 * Main thread handler for the age trigger
+	 */
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	
+	
+	
+	/**
+	 * Flushes queue when the oldest mark gets too old
+	 */
+	private final Runnable ageTrigger = new Runnable() {
+		@Override
+		public void run() {
+			if(DLog.i())
+				DLog.i(LOG_TAG, "Age trigger");
+			flush();
+		}
+	};
+	
+	
+	
+	/**
+	 * Constructs batcher.
+	 * @param uploader - {@link Uploader}
+	 */
+	MarkBatcher(Uploader uploader){
+		this.uploader = uploader;
+	}
+	
+	
+	
+	/**
+	 * Adds mark to the queue. Queue is flushed if it is full.
+	 * @param mark - {@link Mark}
+	 */
+	void add(Mark mark){
+		
+		if(this.queue.isEmpty()){
+			this.oldest = SystemClock.elapsedRealtime();
+			this.handler.postDelayed(this.ageTrigger, MAX_AGE);
+		}
+		
+		this.queue.addLast(mark);
+		
+		trim();
+		
+		if(this.queue.size() >= MAX_BATCH){
+			if(DLog.i())
+				DLog.i(LOG_TAG, "Size trigger");
+			flush();
+		}
+	}
+	
+	
+	
+	/**
+	 * Uploads all queued marks with one request.
+	 */
+	void flush(){
+		
+		this.handler.removeCallbacks(this.ageTrigger);
+		
+		if(this.queue.isEmpty()) return;
+		
+		List<Mark> batch = new ArrayList<Mark>(this.queue);
+		
+		if(!this.uploader.upload(batch)){
+			/* Keep marks and try again later */
+			this.handler.postDelayed(this.ageTrigger, MAX_AGE);
+			return;
+		}
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG, "Flushed " + batch.size() + " marks, the oldest waited "
+					+ (SystemClock.elapsedRealtime() - this.oldest) + " ms");
+		
+		this.queue.clear();
+	}
+	
+	
+	
+	/**
+	 * Returns number of queued marks
+	 * @return size
+	 */
+	int size(){
+		return this.queue.size();
+	}
+	
+	
+	
+	/**
+	 * Drops the oldest marks if the queue is too long
+	 */
+	private void trim(){
+		while(this.queue.size() > MAX_QUEUE)
+			this.queue.removeFirst();
+	}
+
+}
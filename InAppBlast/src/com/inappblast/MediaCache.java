@@ -0,0 +1,657 @@
+package com.inappblast;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import android.content.Context;
+
+/**
+ * MediaCache keeps downloaded notification media files on disk.
+ * Files are stored by the hash of their content, so the same image
+ * referenced by different URLs is stored only once. Every URL
+ * is mapped to the stored file together with its ETag and Last-Modified
+ * validators. Total size of stored files is limited by {@link MediaCache#MAX_SIZE},
+ * least recently used files are removed first. Files of the entries returned by
+ * {@link MediaCache#acquire(String)} and {@link MediaCache#put(String, HttpResponse)}
+ * are pinned and are not removed until {@link MediaCache#unpin(Entry)} is called.
+ * Access order changed by cache hits is written to the index when no file is pinned,
+ * so hits of one notification load are written at once.
+ * @author Maksym Fedyay
+ */
+class MediaCache {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> MediaCache";
+	
+	
+	
+	/**
+	 * Name of cache directory inside the application cache directory
+	 */
+	private static final String DIR_NAME = "blast_media";
+	
+	
+	
+	/**
+	 * Name of the index file
+	 */
+	private static final String INDEX_NAME = "index";
+	
+	
+	
+	/**
+	 * Maximum size in bytes of all stored files
+	 */
+	static final long MAX_SIZE = 8 * 1024 * 1024;
+	
+	
+	
+	/**
+	 * Time in milliseconds the stored file is used without revalidation,
+	 * if server did not provide <code>Cache-Control: max-age</code>
+	 */
+	static final long FRESH_PERIOD = 60 * 60 * 1000;
+	
+	
+	
+	/**
+	 * Shared instance
+	 */
+	private static MediaCache instance;
+	
+	
+	
+	/**
+	 * Returns shared cache, creates it on the first call.
+	 * The first call reads index from disk, so it should not be
+	 * made on the main thread.
+	 * @param context - application context
+	 * @return {@link MediaCache}
+	 */
+	static synchronized MediaCache getInstance(Context context){
+		if(instance == null)
+			instance = new MediaCache(new File(context.getCacheDir(), DIR_NAME), MAX_SIZE);
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Stored URL description
+	 * @author Maksym Fedyay
+	 */
+	static class Entry {
+		
+		final String url;
+		
+		final String hash;
+		
+		final long length;
+		
+		final String etag;
+		
+		final String lastModified;
+		
+		/* Changed with the cache lock held, read without it */
+		volatile long fetched;
+		
+		volatile long maxAge;
+		
+		Entry(String url, String hash, long length, String etag, String lastModified, long fetched, long maxAge){
+			this.url = url;
+			this.hash = hash;
+			this.length = length;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.fetched = fetched;
+			this.maxAge = maxAge;
+		}
+		
+		/**
+		 * Returns true if file may be used without revalidation
+		 * @return boolean
+		 */
+		boolean isFresh(){
+			return System.currentTimeMillis() - this.fetched < this.maxAge;
+		}
+	}
+	
+	
+	
+	/**
+	 * Cache directory
+	 */
+	private final File dir;
+	
+	
+	
+	/**
+	 * Maximum size of stored files
+	 */
+	private final long maxSize;
+	
+	
+	
+	/**
+	 * URL entries in access order, the eldest is the first
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	
+	
+	
+	/**
+	 * Number of URL entries that refer to stored file
+	 */
+	private final Map<String, Integer> references = new HashMap<String, Integer>();
+	
+	
+	
+	/**
+	 * Number of loaders that use stored file, by content hash
+	 */
+	private final Map<String, Integer> pins = new HashMap<String, Integer>();
+	
+	
+	
+	/**
+	 * True if access order changed since the index was written
+	 */
+	private boolean orderChanged;
+	
+	
+	
+	/**
+	 * Current size of stored files
+	 */
+	private long size;
+	
+	
+	
+	/**
+	 * Constructs cache in the given directory and reads index.
+	 * @param dir - cache directory
+	 * @param maxSize - maximum size of stored files
+	 */
+	MediaCache(File dir, long maxSize){
+		this.dir = dir;
+		this.maxSize = maxSize;
+		
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			if(DLog.e())
+				DLog.e(LOG_TAG, "Can't create cache directory | " + dir);
+		}
+		
+		readIndex();
+	}
+	
+	
+	
+	/**
+	 * Returns entry for URL and pins its file, or null if URL is not stored.
+	 * Caller must {@link MediaCache#unpin(Entry) unpin} the entry when
+	 * the file is not used anymore.
+	 * @param url - URL of the media file
+	 * @return {@link Entry}
+	 */
+	synchronized Entry acquire(String url){
+		
+		Entry entry = this.entries.get(url);
+		
+		if(entry == null) return null;
+		
+		pin(entry.hash);
+		this.orderChanged = true;
+		
+		return entry;
+	}
+	
+	
+	
+	/**
+	 * Unpins file of the entry. File removed from the cache while it was pinned 
+	 * is deleted now. When no file is pinned anymore, the cache is trimmed
+	 * and changed access order is written to the index.
+	 * @param entry - entry returned by {@link MediaCache#acquire(String)} 
+	 * or {@link MediaCache#put(String, HttpResponse)}, may be null
+	 */
+	synchronized void unpin(Entry entry){
+		
+		if(entry == null) return;
+		
+		Integer count = this.pins.get(entry.hash);
+		
+		if(count == null) return;
+		
+		if(count > 1){
+			this.pins.put(entry.hash, count - 1);
+			return;
+		}
+		
+		this.pins.remove(entry.hash);
+		
+		if(!this.references.containsKey(entry.hash))
+			new File(this.dir, entry.hash).delete();
+		
+		if(this.pins.isEmpty() && (this.orderChanged || this.size > this.maxSize)){
+			trim();
+			writeIndex();
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns stored file by its content hash.
+	 * @param hash - content hash, see {@link Entry#hash}
+	 * @return {@link File}
+	 */
+	File getFile(String hash){
+		return new File(this.dir, hash);
+	}
+	
+	
+	
+	/**
+	 * Adds validators of stored file to the request, so
+	 * server may answer with <code>304 Not Modified</code>.
+	 * @param request - request of the media file
+	 * @param entry - stored entry or null
+	 */
+	static void addValidators(HttpGet request, Entry entry){
+		
+		if(entry == null) return;
+		
+		if(entry.etag != null)
+			request.addHeader("If-None-Match", entry.etag);
+		if(entry.lastModified != null)
+			request.addHeader("If-Modified-Since", entry.lastModified);
+	}
+	
+	
+	
+	/**
+	 * Marks stored file as revalidated after <code>304 Not Modified</code> response.
+	 * @param entry - stored entry
+	 * @param response - 304 response
+	 */
+	synchronized void revalidated(Entry entry, HttpResponse response){
+		entry.fetched = System.currentTimeMillis();
+		entry.maxAge = getMaxAge(response);
+		writeIndex();
+	}
+	
+	
+	
+	/**
+	 * Stores response content and maps it to the URL.
+	 * Response content is fully consumed by this method.
+	 * File of the returned entry is pinned, see {@link MediaCache#unpin(Entry)}.
+	 * @param url - URL of the media file
+	 * @param response - 200 response
+	 * @return stored {@link Entry}
+	 * @throws IOException if content can't be stored
+	 */
+	Entry put(String url, HttpResponse response) throws IOException{
+		
+		HttpEntity entity = response.getEntity();
+		
+		if(entity == null) throw new IOException("Response has no content | " + url);
+		
+		File temp = File.createTempFile("media", ".tmp", this.dir);
+		
+		MessageDigest digest = newDigest();
+		long length = 0;
+		
+		InputStream is = entity.getContent();
+		OutputStream os = new FileOutputStream(temp);
+		
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = is.read(buffer)) != -1){
+				os.write(buffer, 0, read);
+				digest.update(buffer, 0, read);
+				length += read;
+			}
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		} finally {
+			os.close();
+			is.close();
+		}
+		
+		String hash = toHex(digest.digest());
+		
+		Entry entry = new Entry(url, hash, length,
+				getHeader(response, "ETag"), getHeader(response, "Last-Modified"),
+				System.currentTimeMillis(), getMaxAge(response));
+		
+		synchronized (this) {
+			
+			File file = new File(this.dir, hash);
+			
+			/* The same content is already stored */
+			if(this.references.containsKey(hash) && file.exists()){
+				temp.delete();
+			} else if(!temp.renameTo(file)){
+				temp.delete();
+				throw new IOException("Can't store media file | " + url);
+			}
+			
+			Entry previous = this.entries.remove(url);
+			add(entry);
+			pin(hash);
+			if(previous != null) release(previous);
+			trim();
+			writeIndex();
+		}
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".put()", "Stored | " + url + " | " + hash + " | " + length + " bytes | total " + this.size);
+		
+		return entry;
+	}
+	
+	
+	
+	/**
+	 * Returns current size of stored files
+	 * @return size in bytes
+	 */
+	synchronized long size(){
+		return this.size;
+	}
+	
+	
+	
+	/**
+	 * Adds entry and references its file
+	 */
+	private void add(Entry entry){
+		
+		this.entries.put(entry.url, entry);
+		
+		Integer count = this.references.get(entry.hash);
+		
+		if(count == null){
+			this.references.put(entry.hash, 1);
+			this.size += entry.length;
+		} else {
+			this.references.put(entry.hash, count + 1);
+		}
+	}
+	
+	
+	
+	/**
+	 * Pins the file, so it is not deleted while loader uses it
+	 */
+	private void pin(String hash){
+		Integer count = this.pins.get(hash);
+		this.pins.put(hash, count == null ? 1 : count + 1);
+	}
+	
+	
+	
+	/**
+	 * Releases reference to the entry file, the file is deleted
+	 * when it is not referenced and not pinned
+	 */
+	private void release(Entry entry){
+		
+		Integer count = this.references.get(entry.hash);
+		
+		if(count == null) return;
+		
+		if(count > 1){
+			this.references.put(entry.hash, count - 1);
+			return;
+		}
+		
+		this.references.remove(entry.hash);
+		this.size -= entry.length;
+		
+		/* Deleted by unpin() otherwise */
+		if(!this.pins.containsKey(entry.hash))
+			new File(this.dir, entry.hash).delete();
+	}
+	
+	
+	
+	/**
+	 * Removes least recently used entries until size fits the limit.
+	 * Entries which files are pinned are skipped.
+	 */
+	private void trim(){
+		
+		Iterator<Entry> it = this.entries.values().iterator();
+		
+		/* The most recent entry is kept even if it alone exceeds the limit */
+		while(this.size > this.maxSize && this.entries.size() > 1 && it.hasNext()){
+			Entry eldest = it.next();
+			if(this.pins.containsKey(eldest.hash)) continue;
+			it.remove();
+			release(eldest);
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".trim()", "Evicted | " + eldest.url);
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads index from disk. Entries which files are missing are skipped.
+	 * Temporary files left by the process that was killed are deleted.
+	 */
+	private synchronized void readIndex(){
+		
+		File[] files = this.dir.listFiles();
+		
+		if(files != null){
+			for(File file : files){
+				if(file.getName().endsWith(".tmp") && file.delete() && DLog.i())
+					DLog.i(LOG_TAG + ".readIndex()", "Deleted temporary file | " + file.getName());
+			}
+		}
+		
+		File index = new File(this.dir, INDEX_NAME);
+		
+		if(!index.exists()) return;
+		
+		BufferedReader reader = null;
+		
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] f = line.split("\t", -1);
+				if(f.length != 7) continue;
+				Entry entry = new Entry(f[0], f[1], Long.parseLong(f[2]),
+						f[5].length() == 0 ? null : f[5],
+						f[6].length() == 0 ? null : f[6],
+						Long.parseLong(f[3]), Long.parseLong(f[4]));
+				if(new File(this.dir, entry.hash).exists())
+					add(entry);
+			}
+		} catch (IOException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".readIndex()", e.getMessage());
+		} catch (NumberFormatException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".readIndex()", e.getMessage());
+		} finally {
+			closeQuietly(reader);
+		}
+		
+		trim();
+	}
+	
+	
+	
+	/**
+	 * Writes index to disk in access order
+	 */
+	private void writeIndex(){
+		
+		File temp = new File(this.dir, INDEX_NAME + ".tmp");
+		
+		List<Entry> list = new ArrayList<Entry>(this.entries.values());
+		
+		BufferedWriter writer = null;
+		
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+			for(Entry e : list){
+				writer.write(e.url);
+				writer.write('\t');
+				writer.write(e.hash);
+				writer.write('\t');
+				writer.write(String.valueOf(e.length));
+				writer.write('\t');
+				writer.write(String.valueOf(e.fetched));
+				writer.write('\t');
+				writer.write(String.valueOf(e.maxAge));
+				writer.write('\t');
+				writer.write(e.etag == null ? "" : e.etag);
+				writer.write('\t');
+				writer.write(e.lastModified == null ? "" : e.lastModified);
+				writer.write('\n');
+			}
+			writer.close();
+			writer = null;
+			
+			this.orderChanged = false;
+			
+			if(!temp.renameTo(new File(this.dir, INDEX_NAME)) && DLog.e())
+				DLog.e(LOG_TAG + ".writeIndex()", "Can't replace index file");
+			
+		} catch (IOException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".writeIndex()", e.getMessage());
+		} finally {
+			closeQuietly(writer);
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns value of the header or null if header is absent.
+	 * Tabs and line breaks are not allowed in the index, so such values are ignored.
+	 */
+	static String getHeader(HttpResponse response, String name){
+		
+		Header header = response.getFirstHeader(name);
+		
+		if(header == null) return null;
+		
+		String value = header.getValue();
+		
+		if(value == null || value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0) return null;
+		
+		return value;
+	}
+	
+	
+	
+	/**
+	 * Returns freshness period from <code>Cache-Control</code> header,
+	 * or {@link MediaCache#FRESH_PERIOD} if not provided.
+	 */
+	private static long getMaxAge(HttpResponse response){
+		
+		Header header = response.getFirstHeader("Cache-Control");
+		
+		if(header == null) return FRESH_PERIOD;
+		
+		for(HeaderElement element : header.getElements()){
+			
+			String name = element.getName();
+			
+			if("no-cache".equalsIgnoreCase(name) || "no-store".equalsIgnoreCase(name))
+				return 0;
+			
+			if("max-age".equalsIgnoreCase(name) && element.getValue() != null){
+				try {
+					return Long.parseLong(element.getValue()) * 1000;
+				} catch (NumberFormatException e) {
+					return FRESH_PERIOD;
+				}
+			}
+		}
+		
+		return FRESH_PERIOD;
+	}
+	
+	
+	
+	/**
+	 * Returns SHA-1 digest
+	 */
+	private static MessageDigest newDigest() throws IOException{
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available");
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns hex string of bytes
+	 */
+	private static String toHex(byte[] bytes){
+		char[] digits = "0123456789abcdef".toCharArray();
+		char[] chars = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++){
+			chars[i * 2] = digits[(bytes[i] >> 4) & 0x0f];
+			chars[i * 2 + 1] = digits[bytes[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+	
+	
+	
+	/**
+	 * Closes reader or writer ignoring errors
+	 */
+	private static void closeQuietly(Closeable c){
+		if(c == null) return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.inappblast;
+
+import java.io.File;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * MediaDecoder decodes stored media files no bigger than
+ * the size of the view they will be shown in.
+ * Bounds of the image are read first, then the image is decoded
+ * with the sample size that keeps it not smaller than the target size.
+ * Images without alpha channel are decoded with 2 bytes per pixel.
+ * @author Maksym Fedyay
+ */
+class MediaDecoder {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> MediaDecoder";
+	
+	
+	
+	/**
+	 * Hidden constructor
+	 */
+	private MediaDecoder(){}
+	
+	
+	
+	/**
+	 * Decodes image file to fit the target size. Image is not scaled
+	 * below the target size, so it still can be cropped to fill the view.
+	 * Target size is orientation independent: the longer side of the image
+	 * is compared with the longer side of the target.
+	 * @param file - image file
+	 * @param targetWidth - target width in pixels
+	 * @param targetHeight - target height in pixels
+	 * @return {@link Bitmap} or null if file can't be decoded
+	 */
+	static Bitmap decode(File file, int targetWidth, int targetHeight){
+		
+		String path = file.getAbsolutePath();
+		
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		
+		if(options.outWidth <= 0 || options.outHeight <= 0){
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".decode()", "Can't read image bounds | " + file);
+			return null;
+		}
+		
+		int sampleSize = getSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+		
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = hasAlpha(options.outMimeType) ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+		options.inDither = options.inPreferredConfig == Bitmap.Config.RGB_565;
+		
+		Bitmap bitmap;
+		
+		try {
+			bitmap = BitmapFactory.decodeFile(path, options);
+		} catch (OutOfMemoryError e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".decode()", "Out of memory | " + file);
+			return null;
+		}
+		
+		if(bitmap == null){
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".decode()", "Can't decode | " + file);
+			return null;
+		}
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".decode()", "Decoded | " + file.getName()
+					+ " | " + options.outWidth + "x" + options.outHeight
+					+ " -> " + bitmap.getWidth() + "x" + bitmap.getHeight()
+					+ " | sample=" + sampleSize + " " + options.inPreferredConfig
+					+ " | " + BitmapCache.sizeOf(bitmap) + " bytes");
+		
+		return bitmap;
+	}
+	
+	
+	
+	/**
+	 * Returns the largest power of two sample size that keeps
+	 * both sides of the image not smaller than the target.
+	 * @param width - image width
+	 * @param height - image height
+	 * @param targetWidth - target width
+	 * @param targetHeight - target height
+	 * @return sample size, 1 if image should not be sampled
+	 */
+	static int getSampleSize(int width, int height, int targetWidth, int targetHeight){
+		
+		if(targetWidth <= 0 || targetHeight <= 0) return 1;
+		
+		int longSide = Math.max(width, height);
+		int shortSide = Math.min(width, height);
+		
+		int targetLong = Math.max(targetWidth, targetHeight);
+		int targetShort = Math.min(targetWidth, targetHeight);
+		
+		int sampleSize = 1;
+		
+		while(longSide / (sampleSize * 2) >= targetLong && shortSide / (sampleSize * 2) >= targetShort)
+			sampleSize *= 2;
+		
+		return sampleSize;
+	}
+	
+	
+	
+	/**
+	 * Returns false for formats that never have alpha channel
+	 * @param mimeType - image mime type reported by {@link BitmapFactory}
+	 * @return boolean
+	 */
+	private static boolean hasAlpha(String mimeType){
+		return !"image/jpeg".equalsIgnoreCase(mimeType);
+	}
+
+}
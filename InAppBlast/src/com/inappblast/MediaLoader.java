@@ -0,0 +1,421 @@
+package com.inappblast;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+
+import com.inappblast.BlastConfig.OnMediaLoadedListener;
+
+/**
+ * Loads media files mentioned in notification configuration.
+ * All files are requested at once as high priority tasks of the {@link SdkExecutor},
+ * the result is delivered to {@link OnMediaLoadedListener} on the main thread
+ * when every file is either loaded or failed.
+ * @author Maksym Fedyay
+ */
+class MediaLoader {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> MediaLoader";
+	
+	
+	
+	/*
+	 * Asset indexes, see BlastConfig#getURIs()
+	 */
+	static final int CLOSE_ASSET = 0;
+	static final int OVERLAY_ASSET = 1;
+	static final int IMAGE_ASSET = 2;
+	
+	
+	
+	/**
+	 * Index of the asset without which notification can't be shown.
+	 * @see BlastConfig#getURIs()
+	 */
+	private static final int REQUIRED_ASSET = IMAGE_ASSET;
+	
+	
+	
+	/**
+	 * Size of the close button in dp, see <code>blast_btn_close</code> in layout
+	 */
+	private static final int CLOSE_BUTTON_SIZE = 40;
+	
+	
+	
+	/**
+	 * Notification configuration which media files are loaded
+	 */
+	private final BlastConfig config;
+	
+	
+	
+	/**
+	 * The {@link OnMediaLoadedListener} listener
+	 */
+	private final OnMediaLoadedListener listener;
+	
+	
+	
+	/**
+	 * Timeline of the notification load
+	 */
+	private final BlastTimeline timeline;
+	
+	
+	
+	/**
+	 * Time when loading was started
+	 */
+	private final long started;
+	
+	
+	
+	/*
+	 * Loading state, accessed on the main thread only
+	 */
+	private String[] urls;
+	private String[] keys;
+	private int remaining;
+	
+	
+	
+	/**
+	 * Decoded bitmaps, each element is written by the {@link SdkExecutor}
+	 * thread of its asset before the result is posted to the main thread
+	 */
+	private Bitmap[] bitmaps;
+	
+	
+	
+	/**
+	 * Constructs loader of the configuration media files.
+	 * Call {@link MediaLoader#execute(String[])} with {@link BlastConfig#getURIs()}
+	 * to start loading.
+	 * @param config - notification configuration
+	 * @param timeline - timeline of the notification load
+	 * @param listener - {@link OnMediaLoadedListener}
+	 */
+	public MediaLoader(BlastConfig config, BlastTimeline timeline, OnMediaLoadedListener listener){
+		
+		this.config = config;
+		this.timeline = timeline;
+		this.listener = listener;
+		this.started = SystemClock.elapsedRealtime();
+		
+		/* Log creation */
+		if(DLog.i())
+			DLog.i(LOG_TAG, "Initialized | " + this.toString());
+	}
+	
+	
+	
+	/* Log death */
+	@Override
+	protected void finalize() throws Throwable {
+		if(DLog.i())
+			DLog.i(LOG_TAG, "Destroyed | " + this.toString());
+		super.finalize();
+	}
+	
+	
+	
+	/**
+	 * Starts loading of all files at once. Should be called on the main thread.
+	 * @param urls - URLs of the files, see {@link BlastConfig#getURIs()}
+	 */
+	void execute(String[] urls){
+		
+		this.urls = urls;
+		this.keys = new String[urls.length];
+		this.bitmaps = new Bitmap[urls.length];
+		
+		for (int i = 0; i < urls.length; i++) {
+			if(urls[i] != null) this.remaining++;
+		}
+		
+		if(this.remaining == 0){
+			finish();
+			return;
+		}
+		
+		for (int i = 0; i < urls.length; i++) {
+			
+			/* Skip if URL is null */
+			if(urls[i] == null) continue;
+			
+			final String url = urls[i];
+			final int index = i;
+			
+			new SdkTask<String>() {
+				
+				@Override
+				protected String doInBackground() {
+					return loadAsset(url, index);
+				}
+				
+				@Override
+				protected void onPostExecute(String key) {
+					onAssetLoaded(index, key);
+				}
+				
+				@Override
+				protected void onDropped() {
+					if(DLog.e())
+						DLog.e(LOG_TAG + ".execute()", "Dropped | " + url);
+					onAssetLoaded(index, null);
+				}
+				
+			}.execute(SdkExecutor.PRIORITY_HIGH);
+		}
+	}
+	
+	
+	
+	/**
+	 * Collects result of one file, finishes loading when every file settles
+	 */
+	private void onAssetLoaded(int index, String key){
+		
+		this.keys[index] = key;
+		
+		if(--this.remaining == 0) finish();
+	}
+	
+	
+	
+	/**
+	 * Loads one media file and decodes it into {@link BitmapCache}. 
+	 * Called on the {@link SdkExecutor} thread.
+	 * @param url - URL of the media file
+	 * @param index - asset index
+	 * @return content hash of the file or null if file can't be loaded
+	 */
+	private String loadAsset(String url, int index){
+		
+		Context context = AppBlast.getSharedInstance().getApplicationContext();
+		
+		MediaCache cache = MediaCache.getInstance(context);
+		
+		/* Stored file is pinned, so other loads don't evict it before it is decoded */
+		MediaCache.Entry entry = cache.acquire(url);
+		
+		try {
+			return loadAsset(context, cache, entry, url, index);
+		} finally {
+			cache.unpin(entry);
+		}
+	}
+	
+	
+	
+	/**
+	 * Loads one media file using the stored entry.
+	 * @param context - application context
+	 * @param cache - media cache
+	 * @param entry - stored entry of the URL pinned by the caller, or null
+	 * @param url - URL of the media file
+	 * @param index - asset index
+	 * @return content hash of the file or null if file can't be loaded
+	 */
+	private String loadAsset(Context context, MediaCache cache, MediaCache.Entry entry, String url, int index){
+		
+		/* Stored file is fresh, no need to touch the network */
+		if(entry != null && entry.isFresh()){
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".loadAsset()", "Loaded from cache | " + url);
+			SdkMetrics.count(SdkMetrics.MEDIA_CACHE_HIT);
+			this.timeline.markFetched(index);
+			return decode(context, entry.hash, index);
+		}
+		
+		HttpGet request = new HttpGet(url);
+		HttpResponse response = null;
+		
+		try {
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".loadAsset()", "Start loading | " + url);
+			
+			MediaCache.addValidators(request, entry);
+			
+			DLog.t(TraceBuffer.MEDIA_REQUEST, index, 0);
+			
+			long started = SystemClock.elapsedRealtime();
+			
+			response = HttpTransport.getInstance().execute(request);
+			StatusLine statusLine = response.getStatusLine();
+			
+			int statusCode = statusLine.getStatusCode();
+			
+			DLog.t(TraceBuffer.MEDIA_RESPONSE, index, statusCode);
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG, "Loading finished | " + url + " | " + statusLine.toString());
+			
+			if(statusCode == HttpStatus.SC_NOT_MODIFIED && entry != null){
+				cache.revalidated(entry, response);
+				SdkMetrics.count(SdkMetrics.MEDIA_CACHE_REVALIDATED);
+				SdkMetrics.time(SdkMetrics.MEDIA_DOWNLOAD, SystemClock.elapsedRealtime() - started);
+				this.timeline.markFetched(index);
+				return decode(context, entry.hash, index);
+			}
+			
+			if(statusCode == HttpStatus.SC_OK){
+				MediaCache.Entry stored = cache.put(url, response);
+				SdkMetrics.time(SdkMetrics.MEDIA_DOWNLOAD, SystemClock.elapsedRealtime() - started);
+				this.timeline.markFetched(index);
+				try {
+					return decode(context, stored.hash, index);
+				} finally {
+					cache.unpin(stored);
+				}
+			}
+			
+			DLog.t(TraceBuffer.MEDIA_FAILED, index, statusCode);
+			SdkMetrics.count(SdkMetrics.FAILURE_HTTP);
+			
+		} catch (ClientProtocolException e) {
+			DLog.t(TraceBuffer.MEDIA_FAILED, index, TraceBuffer.CAUSE_IO);
+			SdkMetrics.count(SdkMetrics.FAILURE_IO);
+			if(DLog.e())
+				DLog.e(LOG_TAG, e.getMessage());
+		} catch (IOException e) {
+			DLog.t(TraceBuffer.MEDIA_FAILED, index, TraceBuffer.CAUSE_IO);
+			SdkMetrics.count(SdkMetrics.FAILURE_IO);
+			if(DLog.e())
+				DLog.e(LOG_TAG, e.getMessage());
+		} finally {
+			/* Return connection to the pool */
+			HttpTransport.release(request, response);
+		}
+		
+		/* Network failed, stale file is better than nothing */
+		if(entry != null){
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".loadAsset()", "Using stale cache | " + url);
+			this.timeline.markFetched(index);
+			return decode(context, entry.hash, index);
+		}
+		
+		return null;
+	}
+	
+	
+	
+	/**
+	 * Makes sure that bitmap of stored file is in the {@link BitmapCache}
+	 * and keeps it for the {@link BlastMedia}.
+	 * @return content hash or null if file can't be decoded
+	 */
+	private String decode(Context context, String hash, int index){
+		
+		Bitmap bitmap = getBitmap(context, hash, index);
+		
+		if(bitmap != null){
+			this.bitmaps[index] = bitmap;
+			this.timeline.markDecoded(index);
+			return hash;
+		}
+		
+		DLog.t(TraceBuffer.MEDIA_FAILED, index, TraceBuffer.CAUSE_PARSE);
+		SdkMetrics.count(SdkMetrics.FAILURE_DECODE);
+		
+		return null;
+	}
+	
+	
+	
+	/**
+	 * Delivers result to the listener
+	 */
+	private void finish(){
+		
+		/* Notification can't be shown without main image */
+		if(this.urls[REQUIRED_ASSET] != null && this.keys[REQUIRED_ASSET] == null){
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".finish()", "Required asset is not loaded | " + this.urls[REQUIRED_ASSET]);
+			DLog.t(TraceBuffer.LOAD_FAILED, SystemClock.elapsedRealtime() - this.started, 0);
+			this.listener.onMediaLoaded(OnMediaLoadedListener.ERROR_WHILE_LOADING, this.config);
+			return;
+		}
+		
+		if(DLog.i()){
+			DLog.i(LOG_TAG + ".finish()", BitmapCache.getInstance().toString());
+			DLog.i(LOG_TAG + ".finish()", SdkExecutor.getInstance().toString());
+			DLog.i(LOG_TAG + ".finish()", HttpTransport.getInstance().toString());
+		}
+		
+		this.timeline.mark(BlastTimeline.PHASE_DATA_READY);
+		
+		BlastMedia media = new BlastMedia(this.keys, this.bitmaps, this.started, this.timeline);
+		
+		DLog.t(TraceBuffer.DATA_READY, media.getDelta(), 0);
+		
+		this.listener.onMediaLoaded(OnMediaLoadedListener.DATA_READY, this.config, media);
+		
+	}
+	
+	
+	
+	/**
+	 * Returns bitmap of the stored media file. Bitmap is taken from
+	 * the {@link BitmapCache}, or decoded from the {@link MediaCache} 
+	 * file and put to the {@link BitmapCache} if it was not there.
+	 * Bitmap is decoded no bigger than the view of the asset.
+	 * @param context - application context
+	 * @param hash - content hash of the stored file
+	 * @param index - asset index, see {@link BlastConfig#getURIs()}
+	 * @return {@link Bitmap} or null if file can't be decoded
+	 */
+	static Bitmap getBitmap(Context context, String hash, int index){
+		
+		if(hash == null) return null;
+		
+		BitmapCache bitmapCache = BitmapCache.getInstance();
+		
+		/* The same file may be shown in views of different size */
+		String key = hash + ":" + index;
+		
+		Bitmap bitmap = bitmapCache.get(key);
+		
+		if(bitmap != null) return bitmap;
+		
+		File file = MediaCache.getInstance(context).getFile(hash);
+		
+		DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+		
+		long started = SystemClock.elapsedRealtime();
+		
+		if(index == CLOSE_ASSET){
+			int side = Math.round(CLOSE_BUTTON_SIZE * metrics.density);
+			bitmap = MediaDecoder.decode(file, side, side);
+		} else {
+			/* Overlay and image are stretched to the screen width */
+			bitmap = MediaDecoder.decode(file, metrics.widthPixels, metrics.heightPixels);
+		}
+		
+		SdkMetrics.time(SdkMetrics.MEDIA_DECODE, SystemClock.elapsedRealtime() - started);
+		
+		if(bitmap == null) return null;
+		
+		bitmapCache.put(key, bitmap);
+		
+		return bitmap;
+	}
+	
+}
@@ -0,0 +1,362 @@
+package com.inappblast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * MessagePack reads and writes the compact binary form of the JSON payloads.
+ * Decoded payload is the same {@link JSONObject} the {@link JSONStreamReader}
+ * produces, so the rest of the library does not depend on the wire format.
+ * The format is used only when it is turned on by {@link MessagePack#setEnabled(boolean)}:
+ * configuration is requested with the binary format preferred and JSON accepted,
+ * statistic marks are sent in the binary format.
+ * @author Maksym Fedyay
+ */
+class MessagePack {
+	
+	
+	
+	/**
+	 * Content type of the binary payload
+	 */
+	static final String CONTENT_TYPE = "application/x-msgpack";
+	
+	
+	
+	/**
+	 * Accept header value that prefers binary payload and falls back to JSON
+	 */
+	static final String ACCEPT = CONTENT_TYPE + ", application/json;q=0.5";
+	
+	
+	
+	/**
+	 * True if binary format is used
+	 */
+	private static volatile boolean enabled;
+	
+	
+	
+	/**
+	 * Hidden constructor
+	 */
+	private MessagePack(){}
+	
+	
+	
+	/**
+	 * Turns binary format on or off, server must accept
+	 * <code>application/x-msgpack</code> requests.
+	 * @param enabled - true to use binary format
+	 */
+	static void setEnabled(boolean enabled){
+		MessagePack.enabled = enabled;
+	}
+	
+	
+	
+	/**
+	 * Returns true if binary format is used
+	 * @return boolean
+	 */
+	static boolean isEnabled(){
+		return enabled;
+	}
+	
+	
+	
+	/**
+	 * Returns true if content type is the binary payload
+	 * @param contentType - value of Content-Type header, may be null
+	 * @return boolean
+	 */
+	static boolean isBinary(String contentType){
+		return contentType != null && contentType.regionMatches(true, 0, CONTENT_TYPE, 0, CONTENT_TYPE.length());
+	}
+	
+	
+	
+	/**
+	 * Reads top level map as {@link JSONObject}.
+	 * If <code>abortKey</code> is found at the top level and its value is not null,
+	 * reading is stopped and object with only that key is returned.
+	 * @param is - payload stream
+	 * @param maxSize - maximum number of bytes that may be read from stream
+	 * @param abortKey - key of the error field, may be null
+	 * @return {@link JSONObject}
+	 * @throws IOException if stream can't be read or payload is too large
+	 * @throws JSONException if payload is not a valid map
+	 */
+	static JSONObject readObject(InputStream is, long maxSize, String abortKey) throws IOException, JSONException{
+		
+		DataInputStream in = new DataInputStream(new JSONStreamReader.LimitedInputStream(is, maxSize));
+		
+		int size = readMapHeader(in, in.readUnsignedByte());
+		
+		JSONObject o = new JSONObject();
+		
+		for (int i = 0; i < size; i++) {
+			
+			String key = readKey(in, maxSize);
+			Object value = readValue(in, maxSize);
+			
+			if(abortKey != null && abortKey.equals(key) && value != JSONObject.NULL){
+				JSONObject error = new JSONObject();
+				error.put(key, value);
+				return error;
+			}
+			
+			o.put(key, value);
+		}
+		
+		return o;
+	}
+	
+	
+	
+	/**
+	 * Writes {@link JSONObject} as binary payload
+	 * @param o - object to write
+	 * @return payload
+	 * @throws JSONException if object has unsupported values
+	 */
+	static byte[] write(JSONObject o) throws JSONException{
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bos);
+		
+		try {
+			writeValue(out, o);
+			out.flush();
+		} catch (IOException e) {
+			/* Not thrown by the memory stream */
+			throw new JSONException(e.getMessage());
+		}
+		
+		return bos.toByteArray();
+	}
+	
+	
+	
+	/**
+	 * Reads any value
+	 */
+	private static Object readValue(DataInputStream in, long maxSize) throws IOException, JSONException{
+		
+		int b = in.readUnsignedByte();
+		
+		if(b <= 0x7f) return Long.valueOf(b);
+		if(b >= 0xe0) return Long.valueOf((byte) b);
+		if(b >= 0xa0 && b <= 0xbf) return readString(in, b & 0x1f, maxSize);
+		
+		if((b >= 0x80 && b <= 0x8f) || b == 0xde || b == 0xdf){
+			int size = readMapHeader(in, b);
+			JSONObject o = new JSONObject();
+			for (int i = 0; i < size; i++)
+				o.put(readKey(in, maxSize), readValue(in, maxSize));
+			return o;
+		}
+		
+		if((b >= 0x90 && b <= 0x9f) || b == 0xdc || b == 0xdd){
+			int size = b <= 0x9f ? b & 0x0f : (b == 0xdc ? in.readUnsignedShort() : readLength(in.readInt(), maxSize));
+			JSONArray array = new JSONArray();
+			for (int i = 0; i < size; i++)
+				array.put(readValue(in, maxSize));
+			return array;
+		}
+		
+		switch (b) {
+		case 0xc0: return JSONObject.NULL;
+		case 0xc2: return Boolean.FALSE;
+		case 0xc3: return Boolean.TRUE;
+		case 0xca: return Double.valueOf(in.readFloat());
+		case 0xcb: return Double.valueOf(in.readDouble());
+		case 0xcc: return Long.valueOf(in.readUnsignedByte());
+		case 0xcd: return Long.valueOf(in.readUnsignedShort());
+		case 0xce: return Long.valueOf(in.readInt() & 0xffffffffL);
+		case 0xcf: {
+			long value = in.readLong();
+			/* Larger than long, lose precision rather than sign */
+			return value >= 0 ? (Object) Long.valueOf(value) : (Object) Double.valueOf((value >>> 1) * 2.0 + (value & 1));
+		}
+		case 0xd0: return Long.valueOf(in.readByte());
+		case 0xd1: return Long.valueOf(in.readShort());
+		case 0xd2: return Long.valueOf(in.readInt());
+		case 0xd3: return Long.valueOf(in.readLong());
+		case 0xd9: return readString(in, in.readUnsignedByte(), maxSize);
+		case 0xda: return readString(in, in.readUnsignedShort(), maxSize);
+		case 0xdb: return readString(in, readLength(in.readInt(), maxSize), maxSize);
+		/* Binary data is passed as string */
+		case 0xc4: return readString(in, in.readUnsignedByte(), maxSize);
+		case 0xc5: return readString(in, in.readUnsignedShort(), maxSize);
+		case 0xc6: return readString(in, readLength(in.readInt(), maxSize), maxSize);
+		default:
+			throw new JSONException("Unsupported type 0x" + Integer.toHexString(b) + " in response body");
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns size of the map, header byte is already read
+	 */
+	private static int readMapHeader(DataInputStream in, int b) throws IOException, JSONException{
+		
+		if(b >= 0x80 && b <= 0x8f) return b & 0x0f;
+		if(b == 0xde) return in.readUnsignedShort();
+		if(b == 0xdf) return readLength(in.readInt(), Integer.MAX_VALUE);
+		
+		throw new JSONException("Expected map in response body");
+	}
+	
+	
+	
+	/**
+	 * Reads map key, only string keys are supported
+	 */
+	private static String readKey(DataInputStream in, long maxSize) throws IOException, JSONException{
+		
+		Object key = readValue(in, maxSize);
+		
+		if(!(key instanceof String))
+			throw new JSONException("Expected string key in response body");
+		
+		return (String) key;
+	}
+	
+	
+	
+	/**
+	 * Reads UTF-8 string of the given length
+	 */
+	private static String readString(DataInputStream in, int length, long maxSize) throws IOException{
+		
+		if(length > maxSize)
+			throw new IOException("Response body exceeds allowed size");
+		
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		
+		return new String(bytes, "UTF-8");
+	}
+	
+	
+	
+	/**
+	 * Checks 32 bit length
+	 */
+	private static int readLength(int length, long maxSize) throws IOException{
+		
+		if(length < 0 || length > maxSize)
+			throw new IOException("Response body exceeds allowed size");
+		
+		return length;
+	}
+	
+	
+	
+	/**
+	 * Writes any value
+	 */
+	private static void writeValue(DataOutputStream out, Object value) throws IOException, JSONException{
+		
+		if(value == null || value == JSONObject.NULL){
+			out.writeByte(0xc0);
+		} else if(value instanceof String){
+			writeString(out, (String) value);
+		} else if(value instanceof Boolean){
+			out.writeByte(((Boolean) value) ? 0xc3 : 0xc2);
+		} else if(value instanceof Double || value instanceof Float){
+			out.writeByte(0xcb);
+			out.writeDouble(((Number) value).doubleValue());
+		} else if(value instanceof Number){
+			writeLong(out, ((Number) value).longValue());
+		} else if(value instanceof JSONObject){
+			JSONObject o = (JSONObject) value;
+			writeHeader(out, o.length(), 0x80, 0xde, 0xdf);
+			Iterator<?> keys = o.keys();
+			while(keys.hasNext()){
+				String key = (String) keys.next();
+				writeString(out, key);
+				writeValue(out, o.get(key));
+			}
+		} else if(value instanceof JSONArray){
+			JSONArray array = (JSONArray) value;
+			writeHeader(out, array.length(), 0x90, 0xdc, 0xdd);
+			for (int i = 0; i < array.length(); i++)
+				writeValue(out, array.get(i));
+		} else {
+			throw new JSONException("Unsupported value " + value.getClass().getName());
+		}
+	}
+	
+	
+	
+	/**
+	 * Writes integer in the shortest form
+	 */
+	private static void writeLong(DataOutputStream out, long value) throws IOException{
+		
+		if(value >= -32 && value <= 0x7f){
+			out.writeByte((int) value);
+		} else if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE){
+			out.writeByte(0xd2);
+			out.writeInt((int) value);
+		} else {
+			out.writeByte(0xd3);
+			out.writeLong(value);
+		}
+	}
+	
+	
+	
+	/**
+	 * Writes UTF-8 string
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException{
+		
+		byte[] bytes = s.getBytes("UTF-8");
+		
+		if(bytes.length <= 0x1f){
+			out.writeByte(0xa0 | bytes.length);
+		} else if(bytes.length <= 0xff){
+			out.writeByte(0xd9);
+			out.writeByte(bytes.length);
+		} else if(bytes.length <= 0xffff){
+			out.writeByte(0xda);
+			out.writeShort(bytes.length);
+		} else {
+			out.writeByte(0xdb);
+			out.writeInt(bytes.length);
+		}
+		
+		out.write(bytes);
+	}
+	
+	
+	
+	/**
+	 * Writes map or array header
+	 */
+	private static void writeHeader(DataOutputStream out, int size, int fix, int code16, int code32) throws IOException{
+		
+		if(size <= 0x0f){
+			out.writeByte(fix | size);
+		} else if(size <= 0xffff){
+			out.writeByte(code16);
+			out.writeShort(size);
+		} else {
+			out.writeByte(code32);
+			out.writeInt(size);
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.inappblast;
+
+
+/**
+ * Interface definition for a callback to be invoked with 
+ * the library metrics, so they can be forwarded to the telemetry 
+ * of the host application.
+ * @author Maksym Fedyay
+ */
+public interface OnBlastMetricsListener {
+	
+	/**
+	 * Called on the main thread when notification loading finished,
+	 * successfully or not, and when application went to background.
+	 * @param metrics - {@link BlastMetrics} snapshot
+	 */
+	void onBlastMetrics(BlastMetrics metrics);
+	
+}
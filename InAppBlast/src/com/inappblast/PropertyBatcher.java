@@ -0,0 +1,169 @@
+package com.inappblast;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * PropertyBatcher merges user property updates made during a short window
+ * and uploads them with one request. Later value of the property replaces
+ * the earlier one. Pending properties are uploaded when the window ends,
+ * on {@link PropertyBatcher#flush()}, or when the user changes.
+ * Methods may be called on any thread.
+ * @author Maksym Fedyay
+ */
+class PropertyBatcher {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> PropertyBatcher";
+	
+	
+	
+	/**
+	 * Default time in milliseconds the updates are merged
+	 */
+	static final long DEFAULT_WINDOW = 2000;
+	
+	
+	
+	/**
+	 * Callback that uploads properties
+	 * @author Maksym Fedyay
+	 */
+	interface Uploader {
+		
+		/**
+		 * Uploads properties of the user.
+		 * @param userId - user id the properties were set for
+		 * @param properties - merged properties
+		 */
+		void upload(String userId, Map<String, String> properties);
+	}
+	
+	
+	
+	/**
+	 * Merged properties in order of the first update
+	 */
+	private final Map<String, String> pending = new LinkedHashMap<String, String>();
+	
+	
+	
+	/**
+	 * User id of the pending properties
+	 */
+	private String userId;
+	
+	
+	
+	/**
+	 * Number of merged updates, for logging
+	 */
+	private int updates;
+	
+	
+	
+	/**
+	 * Time in milliseconds the updates are merged
+	 */
+	private long window = DEFAULT_WINDOW;
+	
+	
+	
+	/**
+	 * Uploader of the properties
+	 */
+	private final Uploader uploader;
+	
+	
+	
+	/**
+	 * Main thread handler for the window end
+	 */
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	
+	
+	
+	/**
+	 * Flushes properties when the window ends
+	 */
+	private final Runnable windowEnd = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+	
+	
+	
+	/**
+	 * Constructs batcher.
+	 * @param uploader - {@link Uploader}
+	 */
+	PropertyBatcher(Uploader uploader){
+		this.uploader = uploader;
+	}
+	
+	
+	
+	/**
+	 * Sets time the updates are merged.
+	 * @param window - time in milliseconds, 0 to upload every update at once
+	 */
+	synchronized void setWindow(long window){
+		this.window = Math.max(0, window);
+	}
+	
+	
+	
+	/**
+	 * Merges properties into pending ones. The window is started
+	 * by the first update after flush.
+	 * @param userId - user id the properties are set for
+	 * @param properties - properties to set
+	 */
+	synchronized void add(String userId, Map<String, String> properties){
+		
+		/* Properties of the previous user go first */
+		if(this.userId != null && !this.userId.equals(userId))
+			flush();
+		
+		if(this.pending.isEmpty())
+			this.handler.postDelayed(this.windowEnd, this.window);
+		
+		this.userId = userId;
+		this.pending.putAll(properties);
+		this.updates++;
+		
+		if(this.window == 0)
+			flush();
+	}
+	
+	
+	
+	/**
+	 * Uploads pending properties at once.
+	 */
+	synchronized void flush(){
+		
+		this.handler.removeCallbacks(this.windowEnd);
+		
+		if(this.pending.isEmpty()) return;
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".flush()", this.updates + " updates merged into " + this.pending.size() + " properties");
+		
+		this.uploader.upload(this.userId, new LinkedHashMap<String, String>(this.pending));
+		
+		this.pending.clear();
+		this.userId = null;
+		this.updates = 0;
+	}
+
+}
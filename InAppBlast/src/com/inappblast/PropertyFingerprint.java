@@ -0,0 +1,238 @@
+package com.inappblast;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * PropertyFingerprint remembers the hash of every user property value
+ * the server has acknowledged, so only changed properties are sent again.
+ * Hashes of the values that are sent but not acknowledged yet are kept in memory,
+ * so a value is not sent twice while the first request is pending.
+ * Fingerprint is persisted in the separate shared preferences file
+ * and is reset when the user changes. It is used on the {@link RequestJournal}
+ * thread only, so preferences are loaded and committed off the main thread.
+ * @author Maksym Fedyay
+ */
+class PropertyFingerprint {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> PropertyFingerprint";
+	
+	
+	
+	/**
+	 * Name of shared preferences
+	 */
+	private static final String PREF_NAME = "blast_properties";
+	
+	
+	
+	/**
+	 * Shared preferences key of the user id, property keys are prefixed
+	 */
+	private static final String SP_USER_ID = "user_id";
+	private static final String SP_PROPERTY = "p:";
+	
+	
+	
+	/*
+	 * Fields of the fingerprint passed with the request
+	 */
+	private static final String USER_ID = "u";
+	private static final String HASHES = "h";
+	
+	
+	
+	/**
+	 * Shared instance
+	 */
+	private static PropertyFingerprint instance;
+	
+	
+	
+	/**
+	 * Returns shared fingerprint, creates it on the first call.
+	 * @param context - application context
+	 * @return {@link PropertyFingerprint}
+	 */
+	static synchronized PropertyFingerprint getInstance(Context context){
+		if(instance == null)
+			instance = new PropertyFingerprint(context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE));
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Storage of the acknowledged hashes
+	 */
+	private final SharedPreferences pref;
+	
+	
+	
+	/**
+	 * Hashes of the sent but not acknowledged values
+	 */
+	private final Map<String, Long> sent = new HashMap<String, Long>();
+	
+	
+	
+	/**
+	 * Constructs fingerprint.
+	 * @param pref - storage of the acknowledged hashes
+	 */
+	PropertyFingerprint(SharedPreferences pref){
+		this.pref = pref;
+	}
+	
+	
+	
+	/**
+	 * Returns properties which values differ from the sent or acknowledged ones,
+	 * and remembers them as sent.
+	 * @param userId - user id the properties are set for
+	 * @param properties - properties to set
+	 * @return changed properties, empty if there is nothing to send
+	 */
+	synchronized Map<String, String> changed(String userId, Map<String, String> properties){
+		
+		if(!userId.equals(this.pref.getString(SP_USER_ID, null))){
+			/* Another user, nothing is known about the properties */
+			this.pref.edit().clear().putString(SP_USER_ID, userId).commit();
+			this.sent.clear();
+		}
+		
+		Map<String, String> changed = new LinkedHashMap<String, String>();
+		
+		for(Entry<String, String> entry : properties.entrySet()){
+			
+			/* Null values are not sent */
+			if(entry.getValue() == null) continue;
+			
+			String key = entry.getKey();
+			long hash = hash(entry.getValue());
+			
+			Long known = this.sent.get(key);
+			
+			if(known == null && this.pref.contains(SP_PROPERTY + key))
+				known = this.pref.getLong(SP_PROPERTY + key, 0);
+			
+			if(known != null && known == hash) continue;
+			
+			changed.put(key, entry.getValue());
+			this.sent.put(key, hash);
+		}
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".changed()", changed.size() + " of " + properties.size() + " properties changed");
+		
+		return changed;
+	}
+	
+	
+	
+	/**
+	 * Returns fingerprint of the properties which should be passed to
+	 * {@link PropertyFingerprint#acknowledged(String, boolean)} after the response.
+	 * @param userId - user id the properties are set for
+	 * @param properties - sent properties
+	 * @return String
+	 */
+	static String encode(String userId, Map<String, String> properties){
+		
+		JSONObject hashes = new JSONObject();
+		JSONObject o = new JSONObject();
+		
+		try {
+			for(Entry<String, String> entry : properties.entrySet())
+				hashes.put(entry.getKey(), hash(entry.getValue()));
+			
+			o.put(USER_ID, userId);
+			o.put(HASHES, hashes);
+		} catch (JSONException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".encode()", e.getMessage());
+		}
+		
+		return o.toString();
+	}
+	
+	
+	
+	/**
+	 * Updates fingerprint after the response, or after the request
+	 * was dropped unsent, so the values can be sent again.
+	 * @param encoded - result of the {@link PropertyFingerprint#encode(String, Map)}
+	 * @param accepted - true if server accepted the properties
+	 */
+	synchronized void acknowledged(String encoded, boolean accepted){
+		
+		if(encoded == null) return;
+		
+		JSONObject hashes;
+		String userId;
+		
+		try {
+			JSONObject o = new JSONObject(encoded);
+			userId = o.getString(USER_ID);
+			hashes = o.getJSONObject(HASHES);
+		} catch (JSONException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".acknowledged()", e.getMessage());
+			return;
+		}
+		
+		boolean current = userId.equals(this.pref.getString(SP_USER_ID, null));
+		
+		SharedPreferences.Editor editor = this.pref.edit();
+		
+		Iterator<?> keys = hashes.keys();
+		
+		while(keys.hasNext()){
+			
+			String key = (String) keys.next();
+			long hash = hashes.optLong(key);
+			
+			/* Newer value may be sent already */
+			Long sent = this.sent.get(key);
+			if(current && sent != null && sent == hash)
+				this.sent.remove(key);
+			
+			if(current && accepted)
+				editor.putLong(SP_PROPERTY + key, hash);
+		}
+		
+		editor.commit();
+	}
+	
+	
+	
+	/**
+	 * Returns 64 bit FNV-1a hash of the value
+	 */
+	static long hash(String value){
+		
+		long hash = 0xcbf29ce484222325L;
+		
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		
+		return hash;
+	}
+
+}
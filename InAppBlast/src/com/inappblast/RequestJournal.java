@@ -0,0 +1,732 @@
+package com.inappblast;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * RequestJournal keeps outgoing requests in the append-only file until
+ * the server accepts them, so requests made without network connection
+ * are not lost. Requests are sent strictly in the order they were added,
+ * sending stops at the first transient failure and is retried with the growing delay,
+ * from {@link RequestJournal#RETRY_MIN} up to {@link RequestJournal#RETRY_MAX}, 
+ * or resumed earlier by {@link RequestJournal#replay()} or the next request.
+ * Request the server rejected for good is acknowledged with the error response,
+ * so it does not block the requests behind it.
+ * Every accepted request adds acknowledge record to the file, the file is
+ * rewritten with the pending requests only when acknowledged records prevail.
+ * All file work is done on the single background thread,
+ * so {@link RequestJournal#append(int, String, String, String)} is cheap for the caller.
+ * Requests are sent one by one as low priority tasks of the {@link SdkExecutor},
+ * a request dropped from the full queue is sent later.
+ * @author Maksym Fedyay
+ */
+class RequestJournal {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> RequestJournal";
+	
+	
+	
+	/**
+	 * Name of the journal file
+	 */
+	static final String FILE_NAME = "blast_journal";
+	
+	
+	
+	/**
+	 * Maximum number of pending requests,
+	 * the oldest requests are dropped when it is exceeded
+	 */
+	static final int MAX_PENDING = 500;
+	
+	
+	
+	/**
+	 * Number of acknowledged records that allows compaction of the file
+	 */
+	static final int COMPACT_THRESHOLD = 64;
+	
+	
+	
+	/**
+	 * Delay in milliseconds of the first retry after transient failure,
+	 * it is doubled after every failure up to {@link RequestJournal#RETRY_MAX}
+	 */
+	static final long RETRY_MIN = 5 * 1000;
+	
+	
+	
+	/**
+	 * Maximum delay in milliseconds of the retry
+	 */
+	static final long RETRY_MAX = 10 * 60 * 1000;
+	
+	
+	
+	/*
+	 * Record types
+	 */
+	private static final String REQUEST = "+";
+	private static final String ACK = "-";
+	
+	
+	
+	/**
+	 * Journaled request
+	 * @author Maksym Fedyay
+	 */
+	static class Record {
+		
+		final long seq;
+		
+		/** One of NetTaskRequest actions */
+		final int action;
+		
+		final String uri;
+		
+		/** Additional data needed after request success, may be null */
+		final String tag;
+		
+		/** Request body */
+		final String body;
+		
+		Record(long seq, int action, String uri, String tag, String body){
+			this.seq = seq;
+			this.action = action;
+			this.uri = uri;
+			this.tag = tag;
+			this.body = body;
+		}
+	}
+	
+	
+	
+	/**
+	 * Sends journaled requests
+	 * @author Maksym Fedyay
+	 */
+	interface Sender {
+		
+		/**
+		 * Sends request, called on the {@link SdkExecutor} thread.
+		 * @param record - {@link Record}
+		 * @return response, error envelope if the request is rejected for good,
+		 * or null if request can't be sent now and should be retried later
+		 */
+		JSONObject send(Record record);
+		
+		/**
+		 * Called on the journal thread when request is acknowledged,
+		 * before {@link Sender#onSent(Record, JSONObject)}. Bookkeeping that 
+		 * touches the disk should be done here.
+		 * @param record - {@link Record}
+		 * @param result - response
+		 */
+		void onAcknowledged(Record record, JSONObject result);
+		
+		/**
+		 * Called on the journal thread when request is dropped unsent
+		 * because the journal is full, so state kept for the request can be released.
+		 * @param record - {@link Record}
+		 */
+		void onDropped(Record record);
+		
+		/**
+		 * Called on the main thread after request was sent.
+		 * @param record - {@link Record}
+		 * @param result - response
+		 */
+		void onSent(Record record, JSONObject result);
+	}
+	
+	
+	
+	/**
+	 * Builds request on the journal thread, when building it
+	 * should not be done on the caller thread.
+	 * @author Maksym Fedyay
+	 */
+	abstract static class Builder {
+		
+		/* Additional data of the request, may be null */
+		String tag;
+		
+		/* Request body */
+		String body;
+		
+		/**
+		 * Sets tag and body of the request. Called on the journal thread.
+		 * @return false if there is nothing to append
+		 */
+		abstract boolean build();
+	}
+	
+	
+	
+	/**
+	 * Journal file
+	 */
+	private final File file;
+	
+	
+	
+	/**
+	 * Sender of the requests
+	 */
+	private final Sender sender;
+	
+	
+	
+	/**
+	 * Single journal thread
+	 */
+	private final ScheduledExecutorService executor;
+	
+	
+	
+	/**
+	 * Main thread handler
+	 */
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	
+	
+	
+	/*
+	 * State below is accessed on the journal thread only
+	 */
+	private final LinkedList<Record> pending = new LinkedList<Record>();
+	
+	private Writer writer;
+	
+	private boolean loaded;
+	
+	private boolean draining;
+	
+	private long nextSeq = 1;
+	
+	/** Number of acknowledged records in the file */
+	private int acked;
+	
+	/** Delay of the next retry, 0 if the last request succeeded */
+	private long retryDelay;
+	
+	private boolean retryScheduled;
+	
+	
+	
+	/**
+	 * Resumes sending after transient failure
+	 */
+	private final Runnable retry = new Runnable() {
+		@Override
+		public void run() {
+			
+			retryScheduled = false;
+			
+			if(DLog.i() && !pending.isEmpty())
+				DLog.i(LOG_TAG + ".retry", "Retrying " + pending.size() + " requests");
+			
+			drain();
+		}
+	};
+	
+	
+	
+	/**
+	 * Sends the first pending request on the {@link SdkExecutor},
+	 * the next one is sent after the response.
+	 */
+	private final Runnable sendNext = new Runnable() {
+		@Override
+		public void run() {
+			
+			final Record record = pending.peek();
+			
+			if(record == null){
+				draining = false;
+				return;
+			}
+			
+			boolean queued = SdkExecutor.getInstance().execute(SdkExecutor.PRIORITY_LOW, new SdkExecutor.Droppable() {
+				
+				@Override
+				public void run() {
+					
+					JSONObject result = null;
+					
+					DLog.t(TraceBuffer.JOURNAL_SEND, record.action, record.seq);
+					
+					try {
+						result = sender.send(record);
+					} catch (RuntimeException e) {
+						if(DLog.e())
+							DLog.e(LOG_TAG + ".sendNext", "Send failed | " + e);
+					}
+					
+					final JSONObject response = result;
+					
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							onSent(record, response);
+						}
+					});
+				}
+				
+				@Override
+				public void onDropped() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							onSent(record, null);
+						}
+					});
+				}
+			});
+			
+			if(!queued){
+				draining = false;
+				retryLater();
+			}
+		}
+	};
+	
+	
+	
+	/**
+	 * Acknowledges sent request and sends the next one,
+	 * or stops sending if request failed.
+	 * Called on the journal thread.
+	 */
+	private void onSent(final Record record, final JSONObject result){
+		
+		DLog.t(TraceBuffer.JOURNAL_SENT, record.action, result == null ? 0 : 1);
+		
+		if(result == null){
+			this.draining = false;
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".onSent()", "Stopped, " + this.pending.size() + " requests pending");
+			retryLater();
+			return;
+		}
+		
+		this.retryDelay = 0;
+		
+		ack(record);
+		
+		try {
+			this.sender.onAcknowledged(record, result);
+		} catch (RuntimeException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".onSent()", "Acknowledge failed | " + e);
+		}
+		
+		this.handler.post(new Runnable() {
+			@Override
+			public void run() {
+				sender.onSent(record, result);
+			}
+		});
+		
+		this.executor.execute(this.sendNext);
+	}
+	
+	
+	
+	/**
+	 * Schedules retry of the pending requests with the doubled delay.
+	 * Called on the journal thread.
+	 */
+	private void retryLater(){
+		
+		if(this.retryScheduled || this.pending.isEmpty()) return;
+		
+		this.retryDelay = this.retryDelay == 0 ? RETRY_MIN : Math.min(this.retryDelay * 2, RETRY_MAX);
+		this.retryScheduled = true;
+		
+		if(DLog.i())
+			DLog.i(LOG_TAG + ".retryLater()", "Retry in " + this.retryDelay + "ms");
+		
+		this.executor.schedule(this.retry, this.retryDelay, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	
+	/**
+	 * Constructs journal, file is read on the journal thread.
+	 * @param file - journal file
+	 * @param sender - {@link Sender}
+	 */
+	RequestJournal(File file, Sender sender){
+		
+		this.file = file;
+		this.sender = sender;
+		
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "AppBlast-journal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	
+	
+	/**
+	 * Adds request to the journal and starts sending if it is not in progress.
+	 * @param action - one of NetTaskRequest actions
+	 * @param uri - request URI
+	 * @param tag - additional data needed after request success, may be null
+	 * @param body - request body
+	 */
+	void append(final int action, final String uri, final String tag, final String body){
+		
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				add(action, uri, tag, body);
+			}
+		});
+	}
+	
+	
+	
+	/**
+	 * Adds request that is built on the journal thread, in order 
+	 * with the requests appended before and after this call.
+	 * @param action - one of NetTaskRequest actions
+	 * @param uri - request URI
+	 * @param builder - {@link Builder} of the tag and body
+	 */
+	void append(final int action, final String uri, final Builder builder){
+		
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(builder.build())
+					add(action, uri, builder.tag, builder.body);
+			}
+		});
+	}
+	
+	
+	
+	/**
+	 * Writes request to the file and starts sending. Called on the journal thread.
+	 */
+	private void add(int action, String uri, String tag, String body){
+		
+		load();
+		
+		Record record = new Record(this.nextSeq++, action, uri, tag, body);
+		
+		this.pending.addLast(record);
+		
+		write(REQUEST + "\t" + record.seq + "\t" + record.action + "\t" + record.uri
+				+ "\t" + escape(record.tag) + "\t" + escape(record.body));
+		
+		while(this.pending.size() > MAX_PENDING){
+			Record dropped = this.pending.peek();
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".append()", "Journal is full, request dropped | " + dropped.uri);
+			ack(dropped);
+			try {
+				this.sender.onDropped(dropped);
+			} catch (RuntimeException e) {
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".append()", "Drop failed | " + e);
+			}
+		}
+		
+		drain();
+	}
+	
+	
+	
+	/**
+	 * Sends pending requests, e.g. when network connection is back.
+	 */
+	void replay(){
+		
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				
+				load();
+				
+				if(DLog.i() && !pending.isEmpty())
+					DLog.i(LOG_TAG + ".replay()", "Replaying " + pending.size() + " requests");
+				
+				drain();
+			}
+		});
+	}
+	
+	
+	
+	/**
+	 * Starts sending chain if it is not started yet
+	 */
+	private void drain(){
+		
+		if(this.draining || this.pending.isEmpty()) return;
+		
+		this.draining = true;
+		this.executor.execute(this.sendNext);
+	}
+	
+	
+	
+	/**
+	 * Removes request from the pending ones and records acknowledge
+	 */
+	private void ack(Record record){
+		
+		/* Already dropped from the full journal */
+		if(!this.pending.remove(record)) return;
+		
+		write(ACK + "\t" + record.seq);
+		
+		this.acked++;
+		
+		if(this.acked >= COMPACT_THRESHOLD && this.acked > this.pending.size())
+			compact();
+	}
+	
+	
+	
+	/**
+	 * Reads pending requests from the file, only once
+	 */
+	private void load(){
+		
+		if(this.loaded) return;
+		
+		this.loaded = true;
+		
+		if(this.file.exists()){
+			
+			Map<Long, Record> records = new LinkedHashMap<Long, Record>();
+			
+			int lines = 0;
+			
+			BufferedReader reader = null;
+			
+			try {
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), "UTF-8"));
+				
+				String line;
+				
+				while((line = reader.readLine()) != null){
+					
+					lines++;
+					
+					String[] fields = line.split("\t", -1);
+					
+					try {
+						long seq = Long.parseLong(fields[1]);
+						
+						if(REQUEST.equals(fields[0]) && fields.length == 6){
+							records.put(seq, new Record(seq, Integer.parseInt(fields[2]), fields[3],
+									unescape(fields[4]), unescape(fields[5])));
+						} else if(ACK.equals(fields[0])){
+							records.remove(seq);
+						}
+						
+						this.nextSeq = Math.max(this.nextSeq, seq + 1);
+						
+					} catch (RuntimeException e) {
+						/* Record was not written completely */
+						if(DLog.e())
+							DLog.e(LOG_TAG + ".load()", "Broken record skipped");
+					}
+				}
+				
+			} catch (IOException e) {
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".load()", e.getMessage());
+			} finally {
+				close(reader);
+			}
+			
+			this.pending.addAll(records.values());
+			this.acked = lines - records.size();
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".load()", "Loaded " + this.pending.size() + " pending requests");
+		}
+		
+		if(this.acked > 0 && this.acked >= this.pending.size())
+			compact();
+	}
+	
+	
+	
+	/**
+	 * Rewrites the file with the pending requests only
+	 */
+	private void compact(){
+		
+		close(this.writer);
+		this.writer = null;
+		
+		File temp = new File(this.file.getPath() + ".tmp");
+		
+		Writer out = null;
+		
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+			
+			for (Record record : this.pending) {
+				out.write(REQUEST + "\t" + record.seq + "\t" + record.action + "\t" + record.uri
+						+ "\t" + escape(record.tag) + "\t" + escape(record.body) + "\n");
+			}
+			
+			out.close();
+			out = null;
+			
+			if(!temp.renameTo(this.file))
+				throw new IOException("Can't rename " + temp);
+			
+			if(DLog.i())
+				DLog.i(LOG_TAG + ".compact()", this.acked + " acknowledged records removed");
+			
+			this.acked = 0;
+			
+		} catch (IOException e) {
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".compact()", e.getMessage());
+			temp.delete();
+		} finally {
+			close(out);
+		}
+	}
+	
+	
+	
+	/**
+	 * Appends line to the file
+	 */
+	private void write(String line){
+		
+		try {
+			
+			if(this.writer == null)
+				this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), "UTF-8"));
+			
+			this.writer.write(line);
+			this.writer.write('\n');
+			this.writer.flush();
+			
+		} catch (IOException e) {
+			/* Request is still kept in memory */
+			if(DLog.e())
+				DLog.e(LOG_TAG + ".write()", e.getMessage());
+			close(this.writer);
+			this.writer = null;
+		}
+	}
+	
+	
+	
+	/**
+	 * Escapes tabs and line breaks of the field
+	 */
+	private static String escape(String s){
+		
+		if(s == null) return "";
+		
+		StringBuilder sb = new StringBuilder(s.length());
+		
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '\\': sb.append("\\\\"); break;
+			case '\t': sb.append("\\t"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			default: sb.append(c);
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	
+	
+	/**
+	 * Reverts {@link RequestJournal#escape(String)}, empty field is null
+	 */
+	private static String unescape(String s){
+		
+		if(s.length() == 0) return null;
+		
+		StringBuilder sb = new StringBuilder(s.length());
+		
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '\\' && i + 1 < s.length()){
+				char n = s.charAt(++i);
+				switch (n) {
+				case 't': sb.append('\t'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				default: sb.append(n);
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	
+	
+	/**
+	 * Closes quietly
+	 */
+	private static void close(Closeable c){
+		if(c == null) return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			/* Nothing to do */
+		}
+	}
+
+}
@@ -0,0 +1,427 @@
+package com.inappblast;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.SuppressLint;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * SdkExecutor runs all background network work of the library,
+ * apart from the host application {@link android.os.AsyncTask AsyncTasks}.
+ * Work is queued by priority: notification configuration and media
+ * go ahead of statistics and user data sync. No more than {@link SdkExecutor#MAX_RUNNING}
+ * tasks run at once, no more than {@link SdkExecutor#MAX_QUEUE} tasks wait.
+ * When the queue is full, the newest task of lower priority is dropped
+ * in favor of the new one, or the new task is rejected.
+ * Tasks run on the own daemon threads, or on the {@link Executor} of the host application
+ * set by {@link SdkExecutor#setExecutor(Executor)}.
+ * @author Maksym Fedyay
+ */
+class SdkExecutor {
+	
+	
+	
+	/**
+	 * Logging tag
+	 */
+	private static final String LOG_TAG = ">> SdkExecutor";
+	
+	
+	
+	/*
+	 * Priorities
+	 */
+	static final int PRIORITY_LOW = 0;
+	static final int PRIORITY_HIGH = 10;
+	
+	
+	
+	/**
+	 * Maximum number of tasks running at once
+	 */
+	static final int MAX_RUNNING = 3;
+	
+	
+	
+	/**
+	 * Maximum number of waiting tasks
+	 */
+	static final int MAX_QUEUE = 32;
+	
+	
+	
+	/**
+	 * Task that should know when it is dropped from the full queue
+	 * or rejected, e.g. to try again later.
+	 * @author Maksym Fedyay
+	 */
+	interface Droppable extends Runnable {
+		
+		/**
+		 * Called instead of {@link Runnable#run()} when task will not run
+		 */
+		void onDropped();
+	}
+	
+	
+	
+	/**
+	 * Queued task
+	 */
+	private static class Task implements Comparable<Task> {
+		
+		final Runnable runnable;
+		
+		final int priority;
+		
+		final long seq;
+		
+		final long queued = SystemClock.elapsedRealtime();
+		
+		Task(Runnable runnable, int priority, long seq){
+			this.runnable = runnable;
+			this.priority = priority;
+			this.seq = seq;
+		}
+		
+		/* Higher priority first, then in order of adding */
+		@Override
+		public int compareTo(Task another) {
+			if(this.priority != another.priority)
+				return this.priority > another.priority ? -1 : 1;
+			return this.seq < another.seq ? -1 : (this.seq == another.seq ? 0 : 1);
+		}
+	}
+	
+	
+	
+	/**
+	 * Shared instance
+	 */
+	private static SdkExecutor instance;
+	
+	
+	
+	/**
+	 * Returns shared executor, creates it on the first call.
+	 * @return {@link SdkExecutor}
+	 */
+	static synchronized SdkExecutor getInstance(){
+		if(instance == null)
+			instance = new SdkExecutor();
+		return instance;
+	}
+	
+	
+	
+	/**
+	 * Waiting tasks
+	 */
+	private final PriorityQueue<Task> queue = new PriorityQueue<Task>();
+	
+	
+	
+	/**
+	 * Executor of the host application
+	 */
+	private Executor hostExecutor;
+	
+	
+	
+	/**
+	 * Own executor, created when it is needed
+	 */
+	private ThreadPoolExecutor ownExecutor;
+	
+	
+	
+	/**
+	 * Number of running tasks
+	 */
+	private int running;
+	
+	
+	
+	/**
+	 * Number of added tasks, used for the order of tasks with the same priority
+	 */
+	private long seq;
+	
+	
+	
+	/*
+	 * Statistics
+	 */
+	private int maxDepth;
+	private int executed;
+	private int dropped;
+	private long totalWait;
+	private long maxWait;
+	
+	
+	
+	/**
+	 * Hidden constructor
+	 */
+	private SdkExecutor(){}
+	
+	
+	
+	/**
+	 * Sets executor of the host application, all subsequent tasks will run on it.
+	 * Pass null to use own threads.
+	 * @param executor - {@link Executor}
+	 */
+	synchronized void setExecutor(Executor executor){
+		this.hostExecutor = executor;
+	}
+	
+	
+	
+	/**
+	 * Queues task.
+	 * @param priority - {@link SdkExecutor#PRIORITY_HIGH} or {@link SdkExecutor#PRIORITY_LOW}
+	 * @param runnable - task, implement {@link Droppable} to know if task is dropped
+	 * after it was queued
+	 * @return false if task is rejected because the queue is full
+	 * of tasks with the same or higher priority
+	 */
+	boolean execute(int priority, Runnable runnable){
+		
+		Task victim = null;
+		List<Task> started;
+		
+		synchronized (this) {
+			
+			if(this.queue.size() >= MAX_QUEUE){
+				
+				this.dropped++;
+				SdkMetrics.count(SdkMetrics.TASK_DROPPED);
+				
+				victim = findVictim(priority);
+				
+				DLog.t(TraceBuffer.TASK_DROPPED, victim == null ? priority : victim.priority, this.queue.size());
+				
+				if(victim == null){
+					if(DLog.e())
+						DLog.e(LOG_TAG + ".execute()", "Queue is full, task rejected | priority=" + priority);
+					return false;
+				}
+				
+				this.queue.remove(victim);
+				
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".execute()", "Queue is full, task dropped | priority=" + victim.priority);
+			}
+			
+			this.queue.add(new Task(runnable, priority, this.seq++));
+			this.maxDepth = Math.max(this.maxDepth, this.queue.size());
+			
+			started = schedule();
+		}
+		
+		start(started);
+		
+		if(victim != null && victim.runnable instanceof Droppable)
+			((Droppable) victim.runnable).onDropped();
+		
+		return true;
+	}
+	
+	
+	
+	/**
+	 * Returns the newest waiting task with priority lower than given, or null
+	 */
+	private Task findVictim(int priority){
+		
+		Task victim = null;
+		
+		Iterator<Task> it = this.queue.iterator();
+		
+		while(it.hasNext()){
+			Task task = it.next();
+			if(task.priority < priority && (victim == null || victim.compareTo(task) < 0))
+				victim = task;
+		}
+		
+		return victim;
+	}
+	
+	
+	
+	/**
+	 * Takes waiting tasks while there are free slots.
+	 * Called with the lock held, returned tasks are passed to
+	 * {@link SdkExecutor#start(List)} after the lock is released.
+	 * @return tasks to start or null
+	 */
+	private List<Task> schedule(){
+		
+		List<Task> started = null;
+		
+		while(this.running < MAX_RUNNING && !this.queue.isEmpty()){
+			
+			Task task = this.queue.poll();
+			
+			long wait = SystemClock.elapsedRealtime() - task.queued;
+			this.totalWait += wait;
+			SdkMetrics.time(SdkMetrics.QUEUE_WAIT, wait);
+			this.maxWait = Math.max(this.maxWait, wait);
+			this.executed++;
+			this.running++;
+			
+			if(started == null) started = new ArrayList<Task>(MAX_RUNNING);
+			started.add(task);
+		}
+		
+		return started;
+	}
+	
+	
+	
+	/**
+	 * Passes tasks to the executor. Called without the lock, so the
+	 * host executor may run the task on the calling thread or block.
+	 * @param tasks - result of {@link SdkExecutor#schedule()}, may be null
+	 */
+	private void start(List<Task> tasks){
+		
+		if(tasks == null) return;
+		
+		Executor executor;
+		
+		synchronized (this) {
+			executor = getExecutor();
+		}
+		
+		for(final Task task : tasks){
+			
+			Runnable runnable = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.runnable.run();
+					} finally {
+						finished();
+					}
+				}
+			};
+			
+			try {
+				executor.execute(runnable);
+			} catch (RejectedExecutionException e) {
+				/* Host executor refused the task */
+				synchronized (this) {
+					this.running--;
+					this.executed--;
+					this.dropped++;
+				}
+				SdkMetrics.count(SdkMetrics.TASK_DROPPED);
+				if(DLog.e())
+					DLog.e(LOG_TAG + ".start()", "Task rejected by executor | " + e.getMessage());
+				if(task.runnable instanceof Droppable)
+					((Droppable) task.runnable).onDropped();
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Releases slot of the finished task
+	 */
+	private void finished(){
+		
+		List<Task> started;
+		
+		synchronized (this) {
+			this.running--;
+			started = schedule();
+		}
+		
+		start(started);
+	}
+	
+	
+	
+	/**
+	 * Returns executor of the host application or own executor
+	 */
+	@SuppressLint("NewApi")
+	private Executor getExecutor(){
+		
+		if(this.hostExecutor != null) return this.hostExecutor;
+		
+		if(this.ownExecutor != null) return this.ownExecutor;
+		
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_RUNNING, MAX_RUNNING, 
+				30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), 
+				new ThreadFactory() {
+					
+					private final AtomicInteger count = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(final Runnable r) {
+						Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "AppBlast-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		
+		if(android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.GINGERBREAD)
+			executor.allowCoreThreadTimeOut(true);
+		
+		this.ownExecutor = executor;
+		
+		return executor;
+	}
+	
+	
+	
+	/**
+	 * Returns number of waiting tasks
+	 * @return queue depth
+	 */
+	synchronized int getQueueDepth(){
+		return this.queue.size();
+	}
+	
+	
+	
+	/**
+	 * Returns average time in milliseconds the started tasks waited in the queue
+	 * @return average wait time
+	 */
+	synchronized long getAverageWait(){
+		return this.executed == 0 ? 0 : this.totalWait / this.executed;
+	}
+	
+	
+	
+	@Override
+	public synchronized String toString() {
+		return "SdkExecutor[running=" + this.running + ", queued=" + this.queue.size()
+				+ ", maxQueued=" + this.maxDepth + ", executed=" + this.executed
+				+ ", dropped=" + this.dropped + ", avgWait=" + getAverageWait()
+				+ "ms, maxWait=" + this.maxWait + "ms]";
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.inappblast;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.inappblast.AppBlast.NetTaskRequest;
+
+/**
+ * SdkMetrics is the registry of the library counters and latency histograms.
+ * Counters and histogram buckets are atomic, recording does not lock or allocate,
+ * so it can be done on any thread, including from inside of {@link SdkExecutor} lock.
+ * Byte counts and cache stats that are already kept by {@link HttpTransport},
+ * {@link SdkExecutor} and {@link BitmapCache} are read when the snapshot is taken.
+ * @author Maksym Fedyay
+ */
+class SdkMetrics {
+	
+	
+	
+	/*
+	 * Counters
+	 */
+	static final int CONFIG_CACHE_HIT = 0;
+	static final int CONFIG_CACHE_REVALIDATED = 1;
+	static final int MEDIA_CACHE_HIT = 2;
+	static final int MEDIA_CACHE_REVALIDATED = 3;
+	static final int FAILURE_IO = 4;
+	static final int FAILURE_HTTP = 5;
+	static final int FAILURE_PARSE = 6;
+	static final int FAILURE_SERVER = 7;
+	static final int FAILURE_DECODE = 8;
+	static final int TASK_DROPPED = 9;
+	static final int JOURNAL_REJECTED = 10;
+	
+	
+	
+	/**
+	 * Counter names, indexed by counter
+	 */
+	private static final String[] COUNTER_NAMES = {
+		BlastMetrics.CONFIG_CACHE_HIT, BlastMetrics.CONFIG_CACHE_REVALIDATED,
+		BlastMetrics.MEDIA_CACHE_HIT, BlastMetrics.MEDIA_CACHE_REVALIDATED,
+		BlastMetrics.FAILURE_IO, BlastMetrics.FAILURE_HTTP, BlastMetrics.FAILURE_PARSE,
+		BlastMetrics.FAILURE_SERVER, BlastMetrics.FAILURE_DECODE, BlastMetrics.TASK_DROPPED,
+		BlastMetrics.JOURNAL_REJECTED
+	};
+	
+	
+	
+	/**
+	 * Names of the counters that are read from other components
+	 */
+	private static final String[] GAUGE_NAMES = {
+		BlastMetrics.BITMAP_CACHE_HIT, BlastMetrics.BITMAP_CACHE_MISS, BlastMetrics.BITMAP_CACHE_EVICTION,
+		BlastMetrics.QUEUE_DEPTH, BlastMetrics.BYTES_SENT, BlastMetrics.BYTES_SENT_WIRE,
+		BlastMetrics.BYTES_RECEIVED, BlastMetrics.BYTES_RECEIVED_WIRE
+	};
+	
+	
+	
+	/*
+	 * Timers, request timers follow the order of NetTaskRequest actions
+	 */
+	static final int REQUEST_GET_CONFIG = 0;
+	static final int REQUEST_POST_MARK = 1;
+	static final int REQUEST_SET_USER_ID = 2;
+	static final int REQUEST_SET_USER_PROPERTY = 3;
+	static final int REQUEST_UNSET_USER_ID = 4;
+	static final int MEDIA_DOWNLOAD = 5;
+	static final int MEDIA_DECODE = 6;
+	static final int QUEUE_WAIT = 7;
+	
+	
+	
+	/**
+	 * Timer names, indexed by timer
+	 */
+	private static final String[] TIMER_NAMES = {
+		BlastMetrics.REQUEST_GET_CONFIG, BlastMetrics.REQUEST_POST_MARK,
+		BlastMetrics.REQUEST_SET_USER_ID, BlastMetrics.REQUEST_SET_USER_PROPERTY,
+		BlastMetrics.REQUEST_UNSET_USER_ID, BlastMetrics.MEDIA_DOWNLOAD,
+		BlastMetrics.MEDIA_DECODE, BlastMetrics.QUEUE_WAIT
+	};
+	
+	
+	
+	/**
+	 * Upper bounds of the histogram buckets in milliseconds,
+	 * one more bucket counts everything above the last bound.
+	 */
+	private static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+	
+	
+	
+	/**
+	 * Number of buckets of each histogram
+	 */
+	private static final int BUCKETS = BOUNDS.length + 1;
+	
+	
+	
+	/*
+	 * Values
+	 */
+	private static final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+	private static final AtomicLongArray counts = new AtomicLongArray(TIMER_NAMES.length);
+	private static final AtomicLongArray totals = new AtomicLongArray(TIMER_NAMES.length);
+	private static final AtomicLongArray buckets = new AtomicLongArray(TIMER_NAMES.length * BUCKETS);
+	
+	
+	
+	/**
+	 * Hidden constructor
+	 */
+	private SdkMetrics(){}
+	
+	
+	
+	/**
+	 * Increments counter
+	 * @param counter - one of the counter constants
+	 */
+	static void count(int counter){
+		counters.incrementAndGet(counter);
+	}
+	
+	
+	
+	/**
+	 * Records measurement of the timer
+	 * @param timer - one of the timer constants
+	 * @param millis - measured time in milliseconds
+	 */
+	static void time(int timer, long millis){
+		
+		int bucket = 0;
+		while(bucket < BOUNDS.length && millis > BOUNDS[bucket]) bucket++;
+		
+		buckets.incrementAndGet(timer * BUCKETS + bucket);
+		totals.addAndGet(timer, millis);
+		counts.incrementAndGet(timer);
+	}
+	
+	
+	
+	/**
+	 * Returns request timer of the action
+	 * @param action - one of {@link NetTaskRequest} actions
+	 * @return timer
+	 */
+	static int requestTimer(int action){
+		return REQUEST_GET_CONFIG + action - NetTaskRequest.GET_CONFIG;
+	}
+	
+	
+	
+	/**
+	 * Takes snapshot of all metrics
+	 * @return {@link BlastMetrics}
+	 */
+	static BlastMetrics snapshot(){
+		
+		String[] counterNames = new String[COUNTER_NAMES.length + GAUGE_NAMES.length];
+		System.arraycopy(COUNTER_NAMES, 0, counterNames, 0, COUNTER_NAMES.length);
+		System.arraycopy(GAUGE_NAMES, 0, counterNames, COUNTER_NAMES.length, GAUGE_NAMES.length);
+		
+		long[] values = new long[counterNames.length];
+		
+		int i = 0;
+		
+		for (; i < COUNTER_NAMES.length; i++) {
+			values[i] = counters.get(i);
+		}
+		
+		BitmapCache bitmapCache = BitmapCache.getInstance();
+		
+		/* Transport is not created on the caller thread, nothing is sent before it exists */
+		HttpTransport transport = HttpTransport.peekInstance();
+		
+		values[i++] = bitmapCache.hitCount();
+		values[i++] = bitmapCache.missCount();
+		values[i++] = bitmapCache.evictionCount();
+		values[i++] = SdkExecutor.getInstance().getQueueDepth();
+		values[i++] = transport == null ? 0 : transport.getSentBytes();
+		values[i++] = transport == null ? 0 : transport.getSentWireBytes();
+		values[i++] = transport == null ? 0 : transport.getReceivedBytes();
+		values[i++] = transport == null ? 0 : transport.getReceivedWireBytes();
+		
+		long[] timerCounts = new long[TIMER_NAMES.length];
+		long[] timerTotals = new long[TIMER_NAMES.length];
+		long[][] histograms = new long[TIMER_NAMES.length][BUCKETS];
+		
+		for (int t = 0; t < TIMER_NAMES.length; t++) {
+			timerCounts[t] = counts.get(t);
+			timerTotals[t] = totals.get(t);
+			for (int b = 0; b < BUCKETS; b++) {
+				histograms[t][b] = buckets.get(t * BUCKETS + b);
+			}
+		}
+		
+		return new BlastMetrics(counterNames, values, TIMER_NAMES.clone(), 
+				timerCounts, timerTotals, histograms, BOUNDS.clone());
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.inappblast;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * SdkTask runs {@link SdkTask#doInBackground()} on the {@link SdkExecutor}
+ * and delivers the result to {@link SdkTask#onPostExecute(Object)} on the main thread,
+ * the same way {@link android.os.AsyncTask} does, without sharing
+ * the executor with the host application.
+ * @author Maksym Fedyay
+ */
+abstract class SdkTask<Result> {
+	
+	
+	
+	/**
+	 * Main thread handler
+	 */
+	private static final Handler handler = new Handler(Looper.getMainLooper());
+	
+	
+	
+	/**
+	 * Called on the background thread.
+	 * @return result
+	 */
+	protected abstract Result doInBackground();
+	
+	
+	
+	/**
+	 * Called on the main thread with the result of {@link SdkTask#doInBackground()}.
+	 * @param result - result
+	 */
+	protected void onPostExecute(Result result){}
+	
+	
+	
+	/**
+	 * Called on the main thread when task is not executed
+	 * because the {@link SdkExecutor} queue is full.
+	 */
+	protected void onDropped(){}
+	
+	
+	
+	/**
+	 * Queues task on the {@link SdkExecutor}.
+	 * @param priority - {@link SdkExecutor#PRIORITY_HIGH} or {@link SdkExecutor#PRIORITY_LOW}
+	 */
+	final void execute(int priority){
+		
+		boolean queued = SdkExecutor.getInstance().execute(priority, new SdkExecutor.Droppable() {
+			
+			@Override
+			public void run() {
+				
+				final Result result = doInBackground();
+				
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						onPostExecute(result);
+					}
+				});
+			}
+			
+			@Override
+			public void onDropped() {
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						SdkTask.this.onDropped();
+					}
+				});
+			}
+		});
+		
+		if(!queued)
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					SdkTask.this.onDropped();
+				}
+			});
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.inappblast;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.SystemClock;
+
+/**
+ * TraceBuffer keeps the last SDK events in a fixed-size ring, regardless of the log level.
+ * Event is an event code, time and two numeric arguments such as status code or size.
+ * Recording does not format or allocate anything, events are turned into text 
+ * only when the buffer is dumped, see {@link AppBlast#dumpTrace()}.
+ * Use {@link DLog#t(int, long, long)} to record events.
+ * @author Maksym Fedyay
+ */
+class TraceBuffer {
+	
+	
+	
+	/*
+	 * Event codes, meaning of arguments is given in brackets
+	 */
+	static final int INIT = 1;				/* (time on calling thread, 0) */
+	static final int CONFIG_REQUEST = 2;
+	static final int CONFIG_CACHED = 3;		/* (status, 0) */
+	static final int CONFIG_RESPONSE = 4;	/* (status, content length) */
+	static final int CONFIG_FAILED = 5;		/* (status or cause, 0) */
+	static final int MEDIA_REQUEST = 6;		/* (asset index, 0) */
+	static final int MEDIA_RESPONSE = 7;	/* (asset index, status) */
+	static final int MEDIA_FAILED = 8;		/* (asset index, status or cause) */
+	static final int DATA_READY = 9;		/* (load time, 0) */
+	static final int LOAD_FAILED = 10;		/* (load time, 0) */
+	static final int SHOWN = 11;
+	static final int JOURNAL_SEND = 12;		/* (action, sequence) */
+	static final int JOURNAL_SENT = 13;		/* (action, 1 if succeeded) */
+	static final int TASK_DROPPED = 14;		/* (priority, queue size) */
+	static final int READY = 15;			/* (time in background, time to ready) */
+	static final int JOURNAL_REJECTED = 16;	/* (action, status or cause) */
+	
+	
+	
+	/**
+	 * Event names, indexed by event code
+	 */
+	private static final String[] NAMES = {
+		"?", "INIT", "CONFIG_REQUEST", "CONFIG_CACHED", "CONFIG_RESPONSE", "CONFIG_FAILED",
+		"MEDIA_REQUEST", "MEDIA_RESPONSE", "MEDIA_FAILED", "DATA_READY", "LOAD_FAILED",
+		"SHOWN", "JOURNAL_SEND", "JOURNAL_SENT", "TASK_DROPPED", "READY",
+		"JOURNAL_REJECTED"
+	};
+	
+	
+	
+	/*
+	 * Failure causes that are recorded instead of status code
+	 */
+	static final int CAUSE_IO = -1;
+	static final int CAUSE_PARSE = -2;
+	static final int CAUSE_ERROR = -3;
+	
+	
+	
+	/**
+	 * Number of kept events, power of two
+	 */
+	static final int CAPACITY = 256;
+	
+	
+	
+	/**
+	 * Index mask of the ring
+	 */
+	private static final int MASK = CAPACITY - 1;
+	
+	
+	
+	/**
+	 * Number of events ever recorded, the next event is written to <code>cursor & MASK</code>
+	 */
+	private static final AtomicInteger cursor = new AtomicInteger();
+	
+	
+	
+	/*
+	 * Ring slots. Sequence is written last, so slot that is being 
+	 * overwritten while buffer is dumped is skipped.
+	 */
+	private static final int[] seqs = new int[CAPACITY];
+	private static final int[] codes = new int[CAPACITY];
+	private static final long[] times = new long[CAPACITY];
+	private static final long[] args1 = new long[CAPACITY];
+	private static final long[] args2 = new long[CAPACITY];
+	
+	
+	
+	/**
+	 * Hidden constructor
+	 */
+	private TraceBuffer(){}
+	
+	
+	
+	/**
+	 * Records event. Can be called on any thread.
+	 * @param code - event code
+	 * @param arg1 - first argument
+	 * @param arg2 - second argument
+	 */
+	static void record(int code, long arg1, long arg2){
+		
+		int seq = cursor.getAndIncrement();
+		int slot = seq & MASK;
+		
+		/* Mark slot as being written */
+		seqs[slot] = -1;
+		
+		codes[slot] = code;
+		times[slot] = SystemClock.elapsedRealtime();
+		args1[slot] = arg1;
+		args2[slot] = arg2;
+		
+		seqs[slot] = seq;
+	}
+	
+	
+	
+	/**
+	 * Returns recorded events as text, the oldest first, one event per line.
+	 * Time of each event is given in milliseconds relative to the moment of dump.
+	 * @return String
+	 */
+	static String dump(){
+		
+		long now = SystemClock.elapsedRealtime();
+		
+		int end = cursor.get();
+		int start = Math.max(0, end - CAPACITY);
+		
+		StringBuilder sb = new StringBuilder((end - start) * 40);
+		
+		for (int seq = start; seq < end; seq++) {
+			
+			int slot = seq & MASK;
+			
+			int code = codes[slot];
+			long time = times[slot];
+			long arg1 = args1[slot];
+			long arg2 = args2[slot];
+			
+			/* Overwritten or not written yet */
+			if(seqs[slot] != seq) continue;
+			
+			sb.append(time - now).append("ms ")
+				.append(code > 0 && code < NAMES.length ? NAMES[code] : String.valueOf(code))
+				.append(' ').append(arg1)
+				.append(' ').append(arg2)
+				.append('\n');
+		}
+		
+		return sb.toString();
+	}
+
+}
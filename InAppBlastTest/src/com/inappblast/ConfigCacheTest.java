@@ -0,0 +1,149 @@
+package com.inappblast;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests that stored notification configuration is revalidated by default
+ * and its notification is shown only once.
+ * @author Maksym Fedyay
+ */
+public class ConfigCacheTest extends AndroidTestCase {
+	
+	
+	
+	/**
+	 * Configuration URI
+	 */
+	private static final String URI = "http://localhost/v1/notification";
+	
+	
+	
+	/**
+	 * Time in milliseconds to wait for the background write
+	 */
+	private static final long WRITE_TIMEOUT = 5000;
+	
+	
+	
+	/**
+	 * Storage of the tested cache
+	 */
+	private SharedPreferences pref;
+	
+	
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.pref = getContext().getSharedPreferences("blast_config_test", Context.MODE_PRIVATE);
+		this.pref.edit().clear().commit();
+		ConfigCache.setTTL(ConfigCache.DEFAULT_TTL);
+	}
+	
+	
+	
+	/**
+	 * Stored configuration is not used without request by default
+	 */
+	public void testRevalidatedByDefault() throws Exception {
+		
+		ConfigCache cache = new ConfigCache(this.pref);
+		
+		JSONObject body = body("n1");
+		cache.put(URI, response("\"v1\""), body, new BlastConfig(body));
+		
+		assertFalse(cache.get(URI).isFresh());
+	}
+	
+	
+	
+	/**
+	 * Two loads back to back get the same stored configuration,
+	 * only the first one shows the notification
+	 */
+	public void testShownOnce() throws Exception {
+		
+		ConfigCache cache = new ConfigCache(this.pref);
+		
+		JSONObject body = body("n1");
+		BlastConfig config = new BlastConfig(body);
+		cache.put(URI, response("\"v1\""), body, config);
+		
+		/* The first load shows the notification */
+		ConfigCache.Entry first = cache.get(URI);
+		assertFalse(first.shown);
+		cache.shown(first.config);
+		
+		/* The second load is answered with 304 */
+		ConfigCache.Entry second = cache.get(URI);
+		cache.revalidated(second);
+		assertSame(config, second.config);
+		assertTrue(second.shown);
+		
+		/* The mark survives restart */
+		long deadline = SystemClock.elapsedRealtime() + WRITE_TIMEOUT;
+		while(!new ConfigCache(this.pref).get(URI).shown && SystemClock.elapsedRealtime() < deadline)
+			SystemClock.sleep(50);
+		assertTrue(new ConfigCache(this.pref).get(URI).shown);
+	}
+	
+	
+	
+	/**
+	 * Changed configuration is shown again
+	 */
+	public void testChangedConfigurationShown() throws Exception {
+		
+		ConfigCache cache = new ConfigCache(this.pref);
+		
+		JSONObject body = body("n1");
+		cache.put(URI, response("\"v1\""), body, new BlastConfig(body));
+		cache.shown(cache.get(URI).config);
+		
+		body = body("n2");
+		cache.put(URI, response("\"v2\""), body, new BlastConfig(body));
+		
+		assertFalse(cache.get(URI).shown);
+	}
+	
+	
+	
+	/**
+	 * Returns 200 response with the ETag
+	 */
+	private static BasicHttpResponse response(String etag){
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.addHeader("ETag", etag);
+		return response;
+	}
+	
+	
+	
+	/**
+	 * Returns configuration data of the notification
+	 */
+	private static JSONObject body(String id) throws JSONException {
+		
+		JSONObject variation = new JSONObject();
+		variation.put(BlastConfig.TITLE, "Title");
+		variation.put(BlastConfig.IMAGE_URL, "http://localhost/image.png");
+		
+		JSONObject notification = new JSONObject();
+		notification.put(BlastConfig.ID, id);
+		notification.put(BlastConfig.VARIATION, variation);
+		
+		JSONObject o = new JSONObject();
+		o.put(BlastConfig.NOTIFICATION, notification);
+		
+		return o;
+	}
+
+}
@@ -0,0 +1,228 @@
+package com.inappblast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests that {@link HttpTransport} reuses pooled keep-alive connections
+ * and that released responses, read or not, do not leak connections.
+ * Requests are sent to the local stand-in server which counts connections.
+ * @author Maksym Fedyay
+ */
+public class HttpTransportTest extends AndroidTestCase {
+
+
+
+	/**
+	 * Number of requests in the burst
+	 */
+	private static final int BURST = 20;
+
+
+
+	/**
+	 * Body size which is consumed on release
+	 */
+	private static final int SMALL_BODY = 512;
+
+
+
+	/**
+	 * Body size which aborts the connection on release
+	 */
+	private static final int LARGE_BODY = 256 * 1024;
+
+
+
+	/**
+	 * Local stand-in server
+	 */
+	private StandInServer server;
+
+
+
+	/**
+	 * Tested transport
+	 */
+	private HttpTransport transport;
+
+
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.server = new StandInServer();
+		this.transport = new HttpTransport();
+	}
+
+
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.transport.shutdown();
+		this.server.close();
+		super.tearDown();
+	}
+
+
+
+	/**
+	 * Sequential requests which bodies are read go thru the single connection
+	 */
+	public void testSequentialRequestsReuseConnection() throws Exception {
+
+		for (int i = 0; i < BURST; i++) {
+			HttpGet request = new HttpGet(this.server.uri(SMALL_BODY));
+			HttpResponse response = this.transport.execute(request);
+			assertEquals(200, response.getStatusLine().getStatusCode());
+			assertEquals(SMALL_BODY, EntityUtils.toByteArray(response.getEntity()).length);
+			HttpTransport.release(request, response);
+		}
+
+		assertEquals("Connections opened for " + BURST + " requests", 1, this.server.connections.get());
+	}
+
+
+
+	/**
+	 * Short unread body is consumed, so the connection is reused
+	 */
+	public void testUnreadShortBodyReusesConnection() throws Exception {
+
+		for (int i = 0; i < BURST; i++) {
+			HttpGet request = new HttpGet(this.server.uri(SMALL_BODY));
+			HttpResponse response = this.transport.execute(request);
+			HttpTransport.release(request, response);
+		}
+
+		assertEquals(1, this.server.connections.get());
+	}
+
+
+
+	/**
+	 * Large unread body closes the connection instead of draining it,
+	 * the aborted connection does not hold a slot of the pool
+	 */
+	public void testAbortedResponseDoesNotLeak() throws Exception {
+
+		/* More aborted requests than the pool has connections per host */
+		for (int i = 0; i <= HttpTransport.MAX_CONNECTIONS_PER_HOST; i++) {
+			HttpGet request = new HttpGet(this.server.uri(LARGE_BODY));
+			HttpResponse response = this.transport.execute(request);
+			HttpTransport.release(request, response);
+		}
+
+		int aborted = this.server.connections.get();
+
+		assertEquals(HttpTransport.MAX_CONNECTIONS_PER_HOST + 1, aborted);
+
+		/* Would wait for the pool timeout if aborted connections leaked */
+		for (int i = 0; i < BURST; i++) {
+			HttpGet request = new HttpGet(this.server.uri(SMALL_BODY));
+			HttpResponse response = this.transport.execute(request);
+			EntityUtils.toByteArray(response.getEntity());
+			HttpTransport.release(request, response);
+		}
+
+		assertEquals(aborted + 1, this.server.connections.get());
+	}
+
+
+
+	/**
+	 * Keep-alive HTTP server which answers every request with the body
+	 * of the size given in the path, and counts accepted connections.
+	 * @author Maksym Fedyay
+	 */
+	private static class StandInServer implements Runnable {
+
+		final AtomicInteger connections = new AtomicInteger();
+
+		private final ServerSocket socket;
+
+		StandInServer() throws IOException {
+			this.socket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+			Thread thread = new Thread(this, "StandInServer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		String uri(int size){
+			return "http://127.0.0.1:" + this.socket.getLocalPort() + "/" + size;
+		}
+
+		void close() throws IOException {
+			this.socket.close();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(true){
+					final Socket connection = this.socket.accept();
+					this.connections.incrementAndGet();
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							serve(connection);
+						}
+					}, "StandInServer-connection");
+					thread.setDaemon(true);
+					thread.start();
+				}
+			} catch (IOException e) {
+				/* Server is closed */
+			}
+		}
+
+		/* Answers requests of the connection until client closes it */
+		private void serve(Socket connection){
+			try {
+				InputStream is = connection.getInputStream();
+				OutputStream os = connection.getOutputStream();
+				String head;
+				while((head = readHead(is)) != null){
+					String path = head.substring(head.indexOf(' ') + 2, head.indexOf(' ', head.indexOf(' ') + 1));
+					byte[] body = new byte[Integer.parseInt(path)];
+					os.write(("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\n"
+							+ "Content-Length: " + body.length + "\r\nConnection: keep-alive\r\n\r\n").getBytes("US-ASCII"));
+					os.write(body);
+					os.flush();
+				}
+			} catch (IOException e) {
+				/* Client aborted the connection */
+			} finally {
+				try {
+					connection.close();
+				} catch (IOException e) {
+					/* Nothing to do */
+				}
+			}
+		}
+
+		/* Returns request head, or null when connection is closed */
+		private static String readHead(InputStream is) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int b;
+			while((b = is.read()) != -1){
+				sb.append((char) b);
+				if(sb.length() >= 4 && sb.substring(sb.length() - 4).equals("\r\n\r\n"))
+					return sb.toString();
+			}
+			return null;
+		}
+	}
+
+}